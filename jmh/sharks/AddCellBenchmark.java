@@ -0,0 +1,65 @@
+/* AddCellBenchmark.java */
+
+package sharks;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  The AddCellBenchmark class times addFish() and addShark() on a
+ *  RunLengthEncoding.  Every invocation adds ADDS cells, alternately fish
+ *  and sharks, at random coordinates, to an encoding freshly copied from the
+ *  seeded one, so the encoding never fills up and the fraction of adds that
+ *  land on empty cells is the fraction of empty cells in the seeded ocean.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class AddCellBenchmark {
+
+  static final int ADDS = 256;
+
+  @Param({"80", "512", "2048"})
+  int size;
+
+  @Param({"simtext", "0.1", "0.65"})
+  String density;
+
+  @Param({"1", "3"})
+  int starveTime;
+
+  private RunLengthEncoding seeded;
+  private RunLengthEncoding rle;
+  private final int[] xs = new int[ADDS];
+  private final int[] ys = new int[ADDS];
+  private final Random random = new Random(0);
+
+  @Setup(Level.Trial)
+  public void seed() {
+	  seeded = new RunLengthEncoding(Oceans.seeded(size, density, starveTime));
+  }
+
+  @Setup(Level.Invocation)
+  public void reset() {
+	  rle = new RunLengthEncoding(size, size, starveTime, seeded.cursor());
+	  for(int k = 0; k < ADDS; k++) {
+		  xs[k] = random.nextInt(size);
+		  ys[k] = random.nextInt(size);
+	  }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ADDS)
+  public RunLengthEncoding addCell() {
+	  for(int k = 0; k < ADDS; k += 2) {
+		  rle.addFish(xs[k], ys[k]);
+		  rle.addShark(xs[k + 1], ys[k + 1]);
+	  }
+	  return rle;
+  }
+}
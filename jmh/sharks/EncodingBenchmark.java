@@ -0,0 +1,75 @@
+/* EncodingBenchmark.java */
+
+package sharks;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ *  The EncodingBenchmark class times RunLengthEncoding:  encoding an ocean,
+ *  expanding it again, stepping it, and walking its runs.  The sizes stop at
+ *  2048 x 2048 by default, since a linked encoding of a random 8192 x 8192
+ *  ocean does not fit in the forked JVM's heap; pass -p size=8192 and a
+ *  larger -jvmArgs -Xmx to measure it anyway.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class EncodingBenchmark {
+
+  @Param({"80", "512", "2048"})
+  int size;
+
+  @Param({"simtext", "0.1", "0.65"})
+  String density;
+
+  @Param({"1", "3"})
+  int starveTime;
+
+  private Ocean sea;
+  private RunLengthEncoding rle;
+  private RunCursor runs;
+
+  @Setup(Level.Trial)
+  public void seed() {
+	  sea = Oceans.seeded(size, density, starveTime);
+	  rle = new RunLengthEncoding(sea);
+	  runs = rle.cursor();
+  }
+
+  @Benchmark
+  public RunLengthEncoding encode() {
+	  return new RunLengthEncoding(sea);
+  }
+
+  @Benchmark
+  public Ocean toOcean() {
+	  return rle.toOcean();
+  }
+
+  @Benchmark
+  public RunLengthEncoding rleTimeStep() {
+	  return rle.timeStep();
+  }
+
+  @Benchmark
+  public void nextRun(Blackhole hole) {
+	  rle.restartRuns();
+	  for(TypeAndSize run = rle.nextRun(); run != null; run = rle.nextRun())
+		  hole.consume(run);
+  }
+
+  @Benchmark
+  public void cursor(Blackhole hole) {
+	  runs.restart();
+	  while(runs.next()) {
+		  hole.consume(runs.type());
+		  hole.consume(runs.length());
+	  }
+  }
+}
@@ -0,0 +1,69 @@
+/* OceanStepBenchmark.java */
+
+package sharks;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  The OceanStepBenchmark class times one timestep of an ocean, by each of
+ *  the ways an Ocean can be stepped.  The benchmarks that step in place
+ *  start over from the seeded ocean at every iteration, so each iteration
+ *  measures the same generations.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class OceanStepBenchmark {
+
+  @Param({"80", "512", "2048", "8192"})
+  int size;
+
+  @Param({"simtext", "0.1", "0.65"})
+  String density;
+
+  @Param({"1", "3"})
+  int starveTime;
+
+  private Ocean seeded;
+  private Ocean sea;
+  private BitboardOcean bitboard;
+
+  @Setup(Level.Trial)
+  public void seed() {
+	  seeded = Oceans.seeded(size, density, starveTime);
+  }
+
+  @Setup(Level.Iteration)
+  public void reset() {
+	  sea = Oceans.copy(seeded);
+	  bitboard = new BitboardOcean(seeded);
+  }
+
+  @Benchmark
+  public Ocean timeStep() {
+	  return seeded.timeStep();
+  }
+
+  @Benchmark
+  public Ocean advance() {
+	  sea.advance();
+	  return sea;
+  }
+
+  @Benchmark
+  public Ocean advanceParallel() {
+	  sea.advance(ForkJoinPool.commonPool());
+	  return sea;
+  }
+
+  @Benchmark
+  public BitboardOcean bitboard() {
+	  bitboard.advance();
+	  return bitboard;
+  }
+}
@@ -0,0 +1,52 @@
+/* Oceans.java */
+
+package sharks;
+
+/**
+ *  The Oceans class builds the oceans the benchmarks run on.
+ */
+
+final class Oceans {
+
+  private Oceans() {}
+
+  /**
+   *  seeded() returns a square ocean populated by OceanSeed from Random(0),
+   *  so every run of the benchmarks measures the same oceans.
+   *  @param density is "simtext" for SimText's own population, or the
+   *         fraction of cells to fill, split between fish and sharks in
+   *         SimText's ratio of 50% to 15%.
+   */
+
+  static Ocean seeded(int size, String density, int starveTime) {
+	  Ocean sea = new Ocean(size, size, starveTime);
+
+	  if(density.equals("simtext"))
+		  OceanSeed.populate(sea);
+	  else {
+		  double d = Double.parseDouble(density);
+
+		  OceanSeed.populate(sea, 0, d * 50 / 65, d * 15 / 65);
+	  }
+	  return sea;
+  }
+
+  /**
+   *  copy() copies an ocean cell by cell, so benchmarks that step in place
+   *  can start over from the seeded ocean.
+   */
+
+  static Ocean copy(Ocean sea) {
+	  Ocean copy = new Ocean(sea.width(), sea.height(), sea.starveTime());
+
+	  for(int y = 0; y < sea.height(); y++) {
+		  for(int x = 0; x < sea.width(); x++) {
+			  if(sea.cellContents(x, y) == Ocean.FISH)
+				  copy.addFish(x, y);
+			  else if(sea.cellContents(x, y) == Ocean.SHARK)
+				  copy.addShark(x, y, sea.sharkFeeding(x, y));
+		  }
+	  }
+	  return copy;
+  }
+}
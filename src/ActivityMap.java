@@ -0,0 +1,83 @@
+/* ActivityMap.java */
+
+/**
+ *  The ActivityMap class divides an ocean into square blocks of cells and
+ *  remembers which blocks changed during the last timestep.  A cell's next
+ *  contents depend only on its own neighborhood, so if neither a block nor
+ *  any of the eight blocks around it changed last timestep, the block will
+ *  not change this timestep either, and stepping it can be skipped.
+ *
+ *  Ocean consults an ActivityMap when active-region tracking is turned on.
+ *  Any cell written outside of a timestep (by addFish(), for instance) must
+ *  be reported with touch(), so that its block is stepped again.
+ */
+
+final class ActivityMap {
+
+  static final int BLOCK_SIZE = 64; // cells on a side of each block
+
+  private final int blocksWide;
+  private final int blocksHigh;
+  private final boolean[] changed; // changed during the last timestep, or touched since
+  private final boolean[] active; // must be stepped during the current timestep
+
+  /**
+   *  ActivityMap() creates a map of an ocean with the given width and height,
+   *  with every block marked as changed.
+   */
+
+  ActivityMap(int width, int height) {
+	  blocksWide = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+	  blocksHigh = (height + BLOCK_SIZE - 1) / BLOCK_SIZE;
+	  changed = new boolean[blocksWide * blocksHigh];
+	  active = new boolean[blocksWide * blocksHigh];
+	  touchAll();
+  }
+
+  int blocksWide() {return blocksWide;}
+
+  int blocksHigh() {return blocksHigh;}
+
+  /**
+   *  touch() marks the block holding cell (x, y) as changed.
+   */
+
+  void touch(int x, int y) {changed[(y / BLOCK_SIZE) * blocksWide + x / BLOCK_SIZE] = true;}
+
+  void touchAll() {
+	  for(int b = 0; b < changed.length; b++)
+		  changed[b] = true;
+  }
+
+  /**
+   *  plan() starts a timestep:  it marks as active every block that changed
+   *  or borders a block that changed (wrapping around the edges of the
+   *  ocean), and forgets the changes so that the timestep can record new ones
+   *  with setChanged().
+   */
+
+  void plan() {
+	  for(int by = 0; by < blocksHigh; by++) {
+		  int north = (by == 0)? blocksHigh - 1: by - 1;
+		  int south = (by == blocksHigh - 1)? 0: by + 1;
+
+		  for(int bx = 0; bx < blocksWide; bx++) {
+			  int west = (bx == 0)? blocksWide - 1: bx - 1;
+			  int east = (bx == blocksWide - 1)? 0: bx + 1;
+
+			  active[by * blocksWide + bx] = changed(north, west) || changed(north, bx) || changed(north, east)
+					  || changed(by, west) || changed(by, bx) || changed(by, east)
+					  || changed(south, west) || changed(south, bx) || changed(south, east);
+		  }
+	  }
+
+	  for(int b = 0; b < changed.length; b++)
+		  changed[b] = false;
+  }
+
+  private boolean changed(int by, int bx) {return changed[by * blocksWide + bx];}
+
+  boolean isActive(int bx, int by) {return active[by * blocksWide + bx];}
+
+  void setChanged(int bx, int by) {changed[by * blocksWide + bx] = true;}
+}
@@ -0,0 +1,179 @@
+/* BatchRun.java */
+
+import java.lang.management.*;
+import java.util.concurrent.*;
+
+/**
+ *  The BatchRun class is a program that runs a simulation of Sharks and Fish
+ *  without drawing it, as fast as it can, and reports how fast it went.
+ *
+ *  Usage:
+ *
+ *         java BatchRun width height starveTime seed generations [engine]
+ *
+ *  The ocean is seeded with OceanSeed in SimText's pattern, drawing from
+ *  Random(seed); seed 0 gives exactly SimText's initial population.  The
+ *  engine is one of
+ *
+ *         reference    Ocean.timeStep(), creating a new Ocean every step
+ *         serial       Ocean.advance() (the default)
+ *         parallel     Ocean.advance() on the common ForkJoinPool
+ *         active       Ocean.advance() with activity tracking
+ *         bitboard     BitboardOcean.advance()
+ *         hashlife     HashlifeOcean.advance(), all generations in one call;
+ *                      the width and height must be powers of two
+ *
+ *  When the run finishes, BatchRun prints the elapsed time, generations and
+ *  cells per second, the bytes allocated by all threads and their rate, the
+ *  garbage collections, and the final population.
+ */
+
+public class BatchRun {
+
+  /**
+   *  An Engine steps an ocean one generation at a time, unless it overrides
+   *  steps() to take several at once.
+   */
+
+  private static abstract class Engine {
+	  abstract void step();
+
+	  void steps(long generations) {
+		  for(long g = 0; g < generations; g++)
+			  step();
+	  }
+
+	  abstract Ocean ocean();
+  }
+
+  private static Engine create(String name, Ocean seeded) {
+	  switch(name) {
+	  case "reference":
+		  return new Engine() {
+			  Ocean sea = seeded;
+			  void step() {sea = sea.timeStep();}
+			  Ocean ocean() {return sea;}
+		  };
+	  case "serial":
+		  return new Engine() {
+			  void step() {seeded.advance();}
+			  Ocean ocean() {return seeded;}
+		  };
+	  case "parallel":
+		  return new Engine() {
+			  void step() {seeded.advance(ForkJoinPool.commonPool());}
+			  Ocean ocean() {return seeded;}
+		  };
+	  case "active":
+		  seeded.trackActivity(true);
+		  return new Engine() {
+			  void step() {seeded.advance();}
+			  Ocean ocean() {return seeded;}
+		  };
+	  case "bitboard":
+		  return new Engine() {
+			  BitboardOcean sea = new BitboardOcean(seeded);
+			  void step() {sea.advance();}
+			  Ocean ocean() {return sea.toOcean();}
+		  };
+	  case "hashlife":
+		  return new Engine() {
+			  HashlifeOcean sea = new HashlifeOcean(seeded);
+			  void step() {sea.advance();}
+			  void steps(long generations) {sea.advance(generations);}
+			  Ocean ocean() {return sea.toOcean();}
+		  };
+	  default:
+		  throw new IllegalArgumentException("Unknown engine " + name
+				  + "; try reference, serial, parallel, active, bitboard, or hashlife");
+	  }
+  }
+
+  /**
+   *  allocatedBytes() returns the total number of bytes allocated by all live
+   *  threads, or -1 if the JVM cannot tell.  Threads that exit during the run
+   *  take their counts with them, so this undercounts if they do.
+   */
+
+  private static long allocatedBytes() {
+	  ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	  if(!(threads instanceof com.sun.management.ThreadMXBean))
+		  return -1;
+
+	  com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+
+	  if(!sunThreads.isThreadAllocatedMemorySupported() || !sunThreads.isThreadAllocatedMemoryEnabled())
+		  return -1;
+
+	  long total = 0;
+
+	  for(long bytes : sunThreads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+		  total += Math.max(bytes, 0);
+	  return total;
+  }
+
+  private static long[] collections() {
+	  long[] counts = new long[2]; // collections, milliseconds
+
+	  for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+		  counts[0] += Math.max(gc.getCollectionCount(), 0);
+		  counts[1] += Math.max(gc.getCollectionTime(), 0);
+	  }
+	  return counts;
+  }
+
+  /**
+   *  seeded() creates an ocean and seeds it as described above.
+   */
+
+  static Ocean seeded(int width, int height, int starveTime, long seed) {
+	  Ocean sea = new Ocean(width, height, starveTime);
+
+	  OceanSeed.populate(sea, seed);
+	  return sea;
+  }
+
+  /**
+   *  main() reads the parameters, runs the simulation, and reports.
+   */
+
+  public static void main(String[] argv) {
+	  if(argv.length < 5 || argv.length > 6) {
+		  System.err.println("Usage:  java BatchRun width height starveTime seed generations [engine]");
+		  System.exit(2);
+	  }
+
+	  int width = Integer.parseInt(argv[0]);
+	  int height = Integer.parseInt(argv[1]);
+	  int starveTime = Integer.parseInt(argv[2]);
+	  long seed = Long.parseLong(argv[3]);
+	  long generations = Long.parseLong(argv[4]);
+	  String engineName = (argv.length > 5)? argv[5]: "serial";
+	  Engine engine = create(engineName, seeded(width, height, starveTime, seed));
+
+	  long[] gcBefore = collections();
+	  long allocatedBefore = allocatedBytes();
+	  long start = System.nanoTime();
+
+	  engine.steps(generations);
+
+	  long elapsed = System.nanoTime() - start;
+	  long allocated = allocatedBytes() - allocatedBefore;
+	  long[] gcAfter = collections();
+	  double seconds = elapsed / 1e9;
+	  GenerationStats stats = engine.ocean().stats();
+
+	  System.out.printf("engine %s:  %d x %d, starveTime %d, seed %d, %d generations%n",
+			  engineName, width, height, starveTime, seed, generations);
+	  System.out.printf("elapsed          %.3f s%n", seconds);
+	  System.out.printf("generations/sec  %.1f%n", generations / seconds);
+	  System.out.printf("cells/sec        %.3e%n", (double) width * height * generations / seconds);
+	  if(allocatedBefore < 0)
+		  System.out.println("allocated        unavailable");
+	  else
+		  System.out.printf("allocated        %.1f MB (%.1f MB/s)%n", allocated / 1e6, allocated / 1e6 / seconds);
+	  System.out.printf("gc               %d collections, %d ms%n", gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+	  System.out.printf("population       %d fish, %d sharks%n", stats.fish(), stats.sharks());
+  }
+}
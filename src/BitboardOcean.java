@@ -0,0 +1,284 @@
+/* BitboardOcean.java */
+
+import java.util.*;
+
+/**
+ *  The BitboardOcean class is a second simulation engine for the same sharks
+ *  and fish rules that Ocean implements.  Instead of one byte per cell, it
+ *  keeps the ocean as bitplanes:  each row is a run of longs in which bit x
+ *  of the plane tells whether cell x holds a fish (or a shark), so a single
+ *  long carries 64 cells.  Neighbor counts are formed with bitwise adders on
+ *  whole words, which steps 64 cells per operation.
+ *
+ *  The rules never need an exact neighbor count, only whether there are at
+ *  least one or at least two fish and sharks nearby, so the adders saturate
+ *  at two and need just two bits of state per species.
+ *
+ *  Hunger is only meaningful for sharks, so it is kept on the side:  the
+ *  indices of all shark cells in increasing order, with each shark's feeding
+ *  alongside.  A third bitplane marks the sharks whose feeding has reached
+ *  zero, which are the ones that die if they do not eat this timestep.
+ *
+ *  A BitboardOcean is created from an Ocean and can be converted back with
+ *  toOcean(); stepping either one produces identical oceans.
+ */
+
+public class BitboardOcean {
+
+  private int width;
+  private int height;
+  private int starveTime;
+  private int words; // longs per row
+  private long lastMask; // the bits of a row's last long that hold cells
+
+  private long[] fish;
+  private long[] sharks;
+  private long[] starving; // sharks whose feeding is zero
+  private int[] sharkIndex; // y * width + x of every shark, in increasing order
+  private short[] sharkFeeding;
+  private int sharkCount;
+
+  private long[] nextFish; // the generation advance() writes into
+  private long[] nextSharks;
+  private long[] nextStarving;
+  private int[] nextSharkIndex;
+  private short[] nextSharkFeeding;
+
+  /**
+   *  BitboardOcean() creates a bitboard copy of an Ocean.
+   *  @param sea is the ocean to copy.  It must be at least two cells wide and
+   *         two cells tall, because in narrower oceans a cell wraps around
+   *         to be its own neighbor, which the word-wide adders cannot exclude.
+   */
+
+  public BitboardOcean(Ocean sea) throws IllegalArgumentException {
+	  if(sea.width() < 2 || sea.height() < 2)
+		  throw new IllegalArgumentException("BitboardOcean needs an ocean at least 2 cells wide and tall");
+
+	  width = sea.width();
+	  height = sea.height();
+	  starveTime = sea.starveTime();
+	  words = (width + 63) >>> 6;
+	  lastMask = ((width & 63) == 0)? -1L: (1L << (width & 63)) - 1;
+	  fish = new long[words * height];
+	  sharks = new long[words * height];
+	  starving = new long[words * height];
+	  nextFish = new long[words * height];
+	  nextSharks = new long[words * height];
+	  nextStarving = new long[words * height];
+	  sharkIndex = new int[16];
+	  sharkFeeding = new short[16];
+	  nextSharkIndex = new int[16];
+	  nextSharkFeeding = new short[16];
+
+	  for(int y = 0; y < height; y++) {
+		  for(int x = 0; x < width; x++) {
+			  int word = y * words + (x >>> 6);
+			  long bit = 1L << x;
+
+			  if(sea.cellContents(x, y) == Ocean.FISH)
+				  fish[word] |= bit;
+			  else if(sea.cellContents(x, y) == Ocean.SHARK) {
+				  int feeding = sea.sharkFeeding(x, y);
+
+				  sharks[word] |= bit;
+				  if(feeding == 0)
+					  starving[word] |= bit;
+				  if(sharkCount == sharkIndex.length) {
+					  sharkIndex = Arrays.copyOf(sharkIndex, sharkCount * 2);
+					  sharkFeeding = Arrays.copyOf(sharkFeeding, sharkCount * 2);
+				  }
+				  sharkIndex[sharkCount] = y * width + x;
+				  sharkFeeding[sharkCount] = (short) feeding;
+				  sharkCount++;
+			  }
+		  }
+	  }
+  }
+
+  public int width() {return width;}
+
+  public int height() {return height;}
+
+  public int starveTime() {return starveTime;}
+
+  /**
+   *  cellContents() returns EMPTY, FISH, or SHARK for cell (x, y), just as
+   *  Ocean.cellContents() does, and throws an IndexOutOfBoundsException if
+   *  the cell is outside the ocean.
+   */
+
+  public int cellContents(int x, int y) {
+	  int word = Objects.checkIndex(y, height) * words + (Objects.checkIndex(x, width) >>> 6);
+
+	  if((fish[word] & (1L << x)) != 0)
+		  return Ocean.FISH;
+	  if((sharks[word] & (1L << x)) != 0)
+		  return Ocean.SHARK;
+	  return Ocean.EMPTY;
+  }
+
+  /**
+   *  sharkFeeding() returns the feeding of the shark in cell (x, y), or -1 if
+   *  the cell does not hold a shark, just as Ocean.sharkFeeding() does.
+   */
+
+  public int sharkFeeding(int x, int y) {
+	  int k = Arrays.binarySearch(sharkIndex, 0, sharkCount,
+			  Objects.checkIndex(y, height) * width + Objects.checkIndex(x, width));
+
+	  return (k < 0)? -1: sharkFeeding[k];
+  }
+
+  /**
+   *  advance() performs a simulation timestep in place, with the same result
+   *  as Ocean.advance().
+   */
+
+  public void advance() {
+	  int oldShark = 0; // position in the old shark list of the next shark to outlive this step
+	  int newCount = 0;
+
+	  for(int y = 0; y < height; y++) {
+		  int row = y * words;
+		  int above = ((y == 0)? height - 1: y - 1) * words;
+		  int below = ((y == height - 1)? 0: y + 1) * words;
+
+		  for(int k = 0; k < words; k++) {
+			  // Saturating counts of neighboring fish and sharks:  fish1 has a bit
+			  // set where at least one neighbor is a fish, fish2 at least two.
+			  long fish1 = 0;
+			  long fish2 = 0;
+			  long sharks1 = 0;
+			  long sharks2 = 0;
+			  long n;
+
+			  n = west(fish, above, k); fish2 |= fish1 & n; fish1 |= n;
+			  n = fish[above + k]; fish2 |= fish1 & n; fish1 |= n;
+			  n = east(fish, above, k); fish2 |= fish1 & n; fish1 |= n;
+			  n = west(fish, row, k); fish2 |= fish1 & n; fish1 |= n;
+			  n = east(fish, row, k); fish2 |= fish1 & n; fish1 |= n;
+			  n = west(fish, below, k); fish2 |= fish1 & n; fish1 |= n;
+			  n = fish[below + k]; fish2 |= fish1 & n; fish1 |= n;
+			  n = east(fish, below, k); fish2 |= fish1 & n; fish1 |= n;
+
+			  n = west(sharks, above, k); sharks2 |= sharks1 & n; sharks1 |= n;
+			  n = sharks[above + k]; sharks2 |= sharks1 & n; sharks1 |= n;
+			  n = east(sharks, above, k); sharks2 |= sharks1 & n; sharks1 |= n;
+			  n = west(sharks, row, k); sharks2 |= sharks1 & n; sharks1 |= n;
+			  n = east(sharks, row, k); sharks2 |= sharks1 & n; sharks1 |= n;
+			  n = west(sharks, below, k); sharks2 |= sharks1 & n; sharks1 |= n;
+			  n = sharks[below + k]; sharks2 |= sharks1 & n; sharks1 |= n;
+			  n = east(sharks, below, k); sharks2 |= sharks1 & n; sharks1 |= n;
+
+			  long valid = (k == words - 1)? lastMask: -1L;
+			  long isFish = fish[row + k];
+			  long isShark = sharks[row + k];
+			  long isEmpty = ~(isFish | isShark) & valid;
+			  long wellFed = (isEmpty & fish2 & sharks2) | (isFish & sharks2) | (isShark & fish1);
+			  long hungrier = isShark & ~fish1 & ~starving[row + k];
+			  long survivors = wellFed | hungrier;
+
+			  nextFish[row + k] = (isEmpty & fish2 & ~sharks2) | (isFish & ~sharks1);
+			  nextSharks[row + k] = survivors;
+
+			  // Record the hunger of every shark in this word, in increasing order.
+			  long starved = 0;
+			  int base = y * width + (k << 6);
+
+			  for(long bits = survivors; bits != 0; bits &= bits - 1) {
+				  int bit = Long.numberOfTrailingZeros(bits);
+				  int feeding;
+
+				  if((wellFed & (1L << bit)) != 0)
+					  feeding = starveTime;
+				  else {
+					  while(sharkIndex[oldShark] != base + bit)
+						  oldShark++;
+					  feeding = sharkFeeding[oldShark] - 1;
+				  }
+
+				  if(feeding == 0)
+					  starved |= 1L << bit;
+				  if(newCount == nextSharkIndex.length) {
+					  nextSharkIndex = Arrays.copyOf(nextSharkIndex, newCount * 2);
+					  nextSharkFeeding = Arrays.copyOf(nextSharkFeeding, newCount * 2);
+				  }
+				  nextSharkIndex[newCount] = base + bit;
+				  nextSharkFeeding[newCount] = (short) feeding;
+				  newCount++;
+			  }
+
+			  nextStarving[row + k] = starved;
+		  }
+	  }
+
+	  swapGenerations(newCount);
+  }
+
+  private void swapGenerations(int newCount) {
+	  long[] oldFish = fish;
+	  long[] oldSharks = sharks;
+	  long[] oldStarving = starving;
+	  int[] oldIndex = sharkIndex;
+	  short[] oldFeeding = sharkFeeding;
+
+	  fish = nextFish;
+	  sharks = nextSharks;
+	  starving = nextStarving;
+	  sharkIndex = nextSharkIndex;
+	  sharkFeeding = nextSharkFeeding;
+	  sharkCount = newCount;
+	  nextFish = oldFish;
+	  nextSharks = oldSharks;
+	  nextStarving = oldStarving;
+	  nextSharkIndex = oldIndex;
+	  nextSharkFeeding = oldFeeding;
+  }
+
+  /**
+   *  west() returns word k of a row shifted so that bit x holds cell x - 1,
+   *  with the last cell of the row wrapping around into bit 0.
+   */
+
+  private long west(long[] plane, int row, int k) {
+	  long shifted = plane[row + k] << 1;
+
+	  if(k > 0)
+		  return shifted | (plane[row + k - 1] >>> 63);
+	  return shifted | ((plane[row + words - 1] >>> ((width - 1) & 63)) & 1L);
+  }
+
+  /**
+   *  east() returns word k of a row shifted so that bit x holds cell x + 1,
+   *  with the first cell of the row wrapping around into the last.
+   */
+
+  private long east(long[] plane, int row, int k) {
+	  long shifted = plane[row + k] >>> 1;
+
+	  if(k < words - 1)
+		  return shifted | (plane[row + k + 1] << 63);
+	  return shifted | ((plane[row] & 1L) << ((width - 1) & 63));
+  }
+
+  /**
+   *  toOcean() converts this BitboardOcean back into an Ocean.
+   *  @return an Ocean with the same cells and shark hunger.
+   */
+
+  public Ocean toOcean() {
+	  Ocean sea = new Ocean(width, height, starveTime);
+
+	  for(int y = 0; y < height; y++) {
+		  for(int k = 0; k < words; k++) {
+			  for(long bits = fish[y * words + k]; bits != 0; bits &= bits - 1)
+				  sea.addFish((k << 6) + Long.numberOfTrailingZeros(bits), y);
+		  }
+	  }
+	  for(int s = 0; s < sharkCount; s++)
+		  sea.addShark(sharkIndex[s] % width, sharkIndex[s] / width, sharkFeeding[s]);
+
+	  return sea;
+  }
+}
@@ -0,0 +1,368 @@
+/* CheckpointLog.java */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  The CheckpointLog class records the generations of a simulation in an
+ *  append-only file, so that any generation can be replayed later without
+ *  rerunning the simulation.  Most generations are stored as a delta against
+ *  the one before:  just the spans of cells whose contents changed.  Every
+ *  keyframeInterval generations, a full keyframe is stored instead, so
+ *  get() never has to replay more than keyframeInterval - 1 deltas.
+ *
+ *  The file starts with a 16-byte header:  the magic number "SFCL", the
+ *  format version, and the keyframe interval, as big-endian ints, followed
+ *  by four unused bytes.  Then comes one frame per generation:  a kind byte
+ *  (KEYFRAME or DELTA), the length of the frame's body as an int, and the
+ *  body.  A keyframe's body is an encoding in RunLengthFile format.  A
+ *  delta's body is a sequence of changed spans, each given by three varints:
+ *  the number of unchanged cells since the end of the last span, the tag
+ *  of the span's new contents (as in RunLengthFile), and the span's length.
+ *
+ *  Frames are only ever appended, and open() drops a partial frame left at
+ *  the end of the file by a crash, so a log can be reopened and extended.
+ */
+
+public class CheckpointLog implements Closeable {
+
+  private static final int MAGIC = 0x5346434C; // "SFCL"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+  private static final int FRAME_HEADER_SIZE = 5;
+  private static final byte KEYFRAME = 'K';
+  private static final byte DELTA = 'D';
+
+  /**
+   *  DEFAULT_KEYFRAME_INTERVAL is the keyframe interval SimText and
+   *  Simulation use when asked to keep a log.
+   */
+
+  public static final int DEFAULT_KEYFRAME_INTERVAL = 64;
+
+  private FileChannel channel;
+  private int keyframeInterval;
+  private long[] offsets = new long[16]; // file offset of each generation's frame
+  private int generations;
+  private PackedRunLengthEncoding last; // a private copy of the last generation appended
+  private ByteBuffer delta = ByteBuffer.allocate(1 << 16); // body of the delta being built
+
+  private CheckpointLog(FileChannel channel, int keyframeInterval) {
+	  this.channel = channel;
+	  this.keyframeInterval = keyframeInterval;
+  }
+
+  /**
+   *  create() creates an empty log, replacing anything the file held before.
+   *  @param file is the file to create.
+   *  @param keyframeInterval is the number of generations from one keyframe
+   *         to the next.
+   */
+
+  public static CheckpointLog create(Path file, int keyframeInterval) throws IOException {
+	  if(keyframeInterval < 1)
+		  throw new IllegalArgumentException("keyframeInterval must be positive:  " + keyframeInterval);
+
+	  FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+			  StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	  ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+	  header.putInt(MAGIC).putInt(VERSION).putInt(keyframeInterval).putInt(0).flip();
+	  try {
+		  while(header.hasRemaining())
+			  channel.write(header);
+	  } catch(IOException e) {
+		  channel.close();
+		  throw e;
+	  }
+	  return new CheckpointLog(channel, keyframeInterval);
+  }
+
+  /**
+   *  open() opens an existing log so its generations can be replayed and new
+   *  ones appended.
+   *  @throws IOException if the file is not a checkpoint log of this version.
+   */
+
+  public static CheckpointLog open(Path file) throws IOException {
+	  FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+	  try {
+		  ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+		  readFully(channel, header, 0);
+		  if(header.getInt(0) != MAGIC)
+			  throw new IOException("Not a checkpoint log:  " + file);
+		  if(header.getInt(4) != VERSION)
+			  throw new IOException("Unsupported checkpoint log version " + header.getInt(4));
+		  if(header.getInt(8) < 1)
+			  throw new IOException("Bad checkpoint log header:  " + file);
+
+		  CheckpointLog log = new CheckpointLog(channel, header.getInt(8));
+
+		  log.indexFrames();
+		  if(log.generations > 0)
+			  log.last = new PackedRunLengthEncoding(log.getOcean(log.generations - 1));
+		  return log;
+	  } catch(IOException | RuntimeException e) {
+		  channel.close();
+		  throw e;
+	  }
+  }
+
+  /**
+   *  generations() returns the number of generations in the log.  They are
+   *  numbered from zero, in the order they were appended.
+   */
+
+  public int generations() {return generations;}
+
+  public int keyframeInterval() {return keyframeInterval;}
+
+  /**
+   *  append() records an ocean as the next generation.  Every generation in
+   *  a log must have the same dimensions and starveTime.  The log keeps its
+   *  own copy of the generation to diff the next one against, so the caller
+   *  is free to change or step the ocean or encoding afterward.
+   */
+
+  public void append(Ocean sea) throws IOException {
+	  record(new PackedRunLengthEncoding(sea));
+  }
+
+  public void append(OceanEncoding rle) throws IOException {
+	  record(new PackedRunLengthEncoding(rle.width(), rle.height(), rle.starveTime(), rle.cursor()));
+  }
+
+  private void record(PackedRunLengthEncoding rle) throws IOException {
+	  if(last != null && (rle.width() != last.width() || rle.height() != last.height() ||
+			  rle.starveTime() != last.starveTime()))
+		  throw new IllegalArgumentException("Generation does not match the log's ocean dimensions");
+
+	  long offset = channel.size();
+	  ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+
+	  channel.position(offset + FRAME_HEADER_SIZE);
+	  if(generations % keyframeInterval == 0) {
+		  RunLengthFile.write(channel, rle);
+		  frameHeader.put(KEYFRAME);
+	  } else {
+		  writeDelta(last.cursor(), rle.cursor(), rle.width() * rle.height());
+		  frameHeader.put(DELTA);
+	  }
+	  frameHeader.putInt((int) (channel.position() - offset - FRAME_HEADER_SIZE)).flip();
+	  while(frameHeader.hasRemaining())
+		  channel.write(frameHeader, offset + frameHeader.position());
+
+	  if(generations == offsets.length)
+		  offsets = Arrays.copyOf(offsets, generations * 2);
+	  offsets[generations++] = offset;
+	  last = rle;
+  }
+
+  /**
+   *  get() replays a generation from the log, starting from the keyframe at
+   *  or before it.
+   *  @param generation is the number of the generation, from zero.
+   */
+
+  public RunLengthEncoding get(int generation) throws IOException {
+	  return new RunLengthEncoding(getOcean(generation));
+  }
+
+  /**
+   *  getOcean() replays a generation from the log as an Ocean.
+   */
+
+  public Ocean getOcean(int generation) throws IOException {
+	  if(generation < 0 || generation >= generations)
+		  throw new IndexOutOfBoundsException("No generation " + generation + " in a log of " + generations);
+
+	  int key = generation;
+
+	  while(frameKind(key) != KEYFRAME)
+		  key--;
+
+	  Ocean sea = readKeyframe(key);
+
+	  for(int g = key + 1; g <= generation; g++)
+		  applyDelta(sea, g);
+	  return sea;
+  }
+
+  /**
+   *  flush() forces every appended generation out to the storage device.
+   */
+
+  public void flush() throws IOException {
+	  channel.force(false);
+  }
+
+  /**
+   *  close() closes the file.  The CheckpointLog cannot be used afterward.
+   */
+
+  public void close() throws IOException {
+	  channel.close();
+  }
+
+  /**
+   *  writeDelta() walks the runs of two generations side by side and writes
+   *  the spans of the second that differ from the first, merging adjacent
+   *  spans with the same new contents.
+   */
+
+  private void writeDelta(RunCursor before, RunCursor after, int cells) throws IOException {
+	  int position = 0;
+	  int beforeEnd = 0;
+	  int afterEnd = 0;
+	  int written = 0; // end of the last span written
+	  int spanStart = 0;
+	  int spanLength = 0; // zero if no span is pending
+	  int spanTag = 0;
+
+	  delta.clear();
+	  while(position < cells) {
+		  while(beforeEnd == position && before.next())
+			  beforeEnd += before.length();
+		  while(afterEnd == position && after.next())
+			  afterEnd += after.length();
+
+		  int end = Math.min(beforeEnd, afterEnd);
+
+		  if(before.type() != after.type() || before.hunger() != after.hunger()) {
+			  int tag = RunLengthFile.tag(after.type(), after.hunger());
+
+			  if(spanLength > 0 && spanStart + spanLength == position && spanTag == tag)
+				  spanLength += end - position;
+			  else {
+				  if(spanLength > 0) {
+					  putSpan(spanStart - written, spanTag, spanLength);
+					  written = spanStart + spanLength;
+				  }
+				  spanStart = position;
+				  spanLength = end - position;
+				  spanTag = tag;
+			  }
+		  }
+		  position = end;
+	  }
+	  if(spanLength > 0)
+		  putSpan(spanStart - written, spanTag, spanLength);
+
+	  delta.flip();
+	  while(delta.hasRemaining())
+		  channel.write(delta);
+  }
+
+  private void putSpan(int skip, int tag, int length) {
+	  if(delta.remaining() < 15)
+		  delta = ByteBuffer.allocate(delta.capacity() * 2).put(delta.flip());
+	  RunLengthFile.putVarint(delta, skip);
+	  RunLengthFile.putVarint(delta, tag);
+	  RunLengthFile.putVarint(delta, length);
+  }
+
+  /**
+   *  readKeyframe() decodes a keyframe into a new Ocean.
+   */
+
+  private Ocean readKeyframe(int generation) throws IOException {
+	  channel.position(offsets[generation] + FRAME_HEADER_SIZE);
+
+	  RunLengthFile.Reader runs = RunLengthFile.open(channel);
+	  Ocean sea = new Ocean(runs.width(), runs.height(), runs.starveTime());
+	  int start = 0;
+
+	  try {
+		  while(runs.next()) {
+			  if(runs.type() != Ocean.EMPTY)
+				  sea.fillRun(start, runs.length(), runs.type(), runs.hunger());
+			  start += runs.length();
+		  }
+	  } catch(UncheckedIOException e) {
+		  throw e.getCause();
+	  }
+	  return sea;
+  }
+
+  /**
+   *  applyDelta() changes an ocean holding the generation before a delta into
+   *  the generation the delta records.
+   */
+
+  private void applyDelta(Ocean sea, int generation) throws IOException {
+	  ByteBuffer body = ByteBuffer.allocate(frameLength(generation));
+	  int cells = sea.width() * sea.height();
+	  int position = 0;
+
+	  readFully(channel, body, offsets[generation] + FRAME_HEADER_SIZE);
+	  while(body.hasRemaining()) {
+		  int skip = RunLengthFile.getVarint(body);
+		  int tag = RunLengthFile.getVarint(body);
+		  int length = RunLengthFile.getVarint(body);
+		  int type = RunLengthFile.tagType(tag);
+
+		  if(type < 0 || skip < 0 || length < 1 || (long) position + skip + length > cells)
+			  throw new IOException("Bad delta for generation " + generation);
+		  position += skip;
+		  sea.fillRun(position, length, type, RunLengthFile.tagHunger(tag));
+		  position += length;
+	  }
+  }
+
+  private byte frameKind(int generation) throws IOException {
+	  ByteBuffer kind = ByteBuffer.allocate(1);
+
+	  readFully(channel, kind, offsets[generation]);
+	  return kind.get(0);
+  }
+
+  private int frameLength(int generation) throws IOException {
+	  ByteBuffer length = ByteBuffer.allocate(4);
+
+	  readFully(channel, length, offsets[generation] + 1);
+	  return length.getInt(0);
+  }
+
+  /**
+   *  indexFrames() finds the offset of every complete frame in the file, and
+   *  cuts off a partial frame at the end, if there is one.
+   */
+
+  private void indexFrames() throws IOException {
+	  ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+	  long offset = HEADER_SIZE;
+	  long size = channel.size();
+
+	  while(offset + FRAME_HEADER_SIZE <= size) {
+		  frameHeader.clear();
+		  readFully(channel, frameHeader, offset);
+
+		  byte kind = frameHeader.get(0);
+		  int length = frameHeader.getInt(1);
+
+		  if((kind != KEYFRAME && kind != DELTA) || length < 0 || offset + FRAME_HEADER_SIZE + length > size)
+			  break;
+		  if(generations == 0 && kind != KEYFRAME)
+			  throw new IOException("Checkpoint log does not start with a keyframe");
+		  if(generations == offsets.length)
+			  offsets = Arrays.copyOf(offsets, generations * 2);
+		  offsets[generations++] = offset;
+		  offset += FRAME_HEADER_SIZE + length;
+	  }
+	  if(offset < size)
+		  channel.truncate(offset);
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+	  while(buffer.hasRemaining()) {
+		  if(channel.read(buffer, offset + buffer.position()) < 0)
+			  throw new EOFException("Checkpoint log ends early");
+	  }
+	  buffer.flip();
+  }
+}
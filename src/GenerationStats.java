@@ -0,0 +1,239 @@
+/* GenerationStats.java */
+
+import java.util.*;
+
+/**
+ *  A GenerationStats describes one generation of an Ocean:  how many fish and
+ *  sharks it holds, how hungry the sharks are, and what happened during the
+ *  timestep that produced it.  The counts are gathered by the same pass that
+ *  performs the timestep, so reading them never costs another scan of the
+ *  ocean.
+ *
+ *  Each Ocean keeps one GenerationStats, returned by Ocean.stats(), and
+ *  updates it in place on every timestep, so monitoring allocates nothing.
+ *  To keep the statistics of a generation after the next timestep, copy them
+ *  with the GenerationStats(GenerationStats) constructor.
+ *
+ *  The population counts always match the ocean, including fish and sharks
+ *  added since the last timestep.  The counts of births, predation, and
+ *  starvation describe the last timestep, and are zero before the first.
+ */
+
+public class GenerationStats {
+
+  private int starveTime;
+  private long generation;
+  private int sharks;
+
+  /**
+   *  population counts the cells holding each packed code, as written by
+   *  Ocean.nextCell():  (feeding << SPECIES_BITS) | species.  Sharks with a
+   *  feeding above starveTime, which can only be placed with addShark(), all
+   *  share the last shark code, (starveTime + 1) << SPECIES_BITS | SHARK.
+   */
+  private int[] population;
+
+  /**
+   *  moves counts the cells that went from each species to each species in
+   *  the last timestep, indexed by (species << SPECIES_BITS) | next species.
+   */
+  private int[] moves = new int[1 << (2 * Ocean.SPECIES_BITS)];
+  private int[] unstepped = new int[1 << Ocean.SPECIES_BITS]; // scratch for recordPartialStep()
+
+  GenerationStats(int starveTime, int cells) {
+	  this.starveTime = starveTime;
+	  population = new int[codes(starveTime)];
+	  population[Ocean.EMPTY] = cells;
+  }
+
+  /**
+   *  GenerationStats() (with a GenerationStats) copies another set of
+   *  statistics.
+   */
+
+  public GenerationStats(GenerationStats other) {
+	  starveTime = other.starveTime;
+	  generation = other.generation;
+	  sharks = other.sharks;
+	  population = other.population.clone();
+	  moves = other.moves.clone();
+  }
+
+  /**
+   *  codes() returns the number of distinct packed codes in an ocean with the
+   *  given starveTime, counting all overfed sharks as one.
+   */
+
+  static int codes(int starveTime) {return (starveTime + 2) << Ocean.SPECIES_BITS;}
+
+  /**
+   *  bucket() returns the index of a packed code in the population counts.
+   */
+
+  static int bucket(int code, int starveTime) {
+	  return Math.min(code, ((starveTime + 1) << Ocean.SPECIES_BITS) | Ocean.SHARK);
+  }
+
+  /**
+   *  generation() returns the number of timesteps between the ocean created
+   *  with new Ocean() and this generation.
+   */
+
+  public long generation() {return generation;}
+
+  public int empty() {return population[Ocean.EMPTY];}
+
+  public int fish() {return population[Ocean.FISH];}
+
+  public int sharks() {return sharks;}
+
+  /**
+   *  sharksWithFeeding() returns the number of sharks with the given feeding,
+   *  which must be between 0 and starveTime.  Together with overfedSharks(),
+   *  this is the histogram of shark hunger.
+   */
+
+  public int sharksWithFeeding(int feeding) {
+	  if(feeding < 0 || feeding > starveTime)
+		  throw new IllegalArgumentException("feeding must be between 0 and " + starveTime);
+	  return population[(feeding << Ocean.SPECIES_BITS) | Ocean.SHARK];
+  }
+
+  /**
+   *  overfedSharks() returns the number of sharks with a feeding above
+   *  starveTime, which addShark() can place but a timestep never creates.
+   */
+
+  public int overfedSharks() {return population[((starveTime + 1) << Ocean.SPECIES_BITS) | Ocean.SHARK];}
+
+  /**
+   *  fishBorn() returns the number of fish born in empty cells in the last
+   *  timestep.
+   */
+
+  public int fishBorn() {return moves[move(Ocean.EMPTY, Ocean.FISH)];}
+
+  /**
+   *  sharksBorn() returns the number of sharks born in the last timestep,
+   *  either in empty cells or in place of fish eaten by several sharks.
+   */
+
+  public int sharksBorn() {return moves[move(Ocean.EMPTY, Ocean.SHARK)] + moves[move(Ocean.FISH, Ocean.SHARK)];}
+
+  /**
+   *  fishEaten() returns the number of fish eaten by sharks in the last
+   *  timestep.
+   */
+
+  public int fishEaten() {return moves[move(Ocean.FISH, Ocean.EMPTY)] + moves[move(Ocean.FISH, Ocean.SHARK)];}
+
+  /**
+   *  sharksStarved() returns the number of sharks that starved in the last
+   *  timestep.
+   */
+
+  public int sharksStarved() {return moves[move(Ocean.SHARK, Ocean.EMPTY)];}
+
+  public String toString() {
+	  return "generation " + generation + ":  " + fish() + " fish, " + sharks + " sharks, " + fishBorn()
+			  + " fish born, " + sharksBorn() + " sharks born, " + fishEaten() + " fish eaten, "
+			  + sharksStarved() + " sharks starved";
+  }
+
+  private static int move(int from, int to) {return (from << Ocean.SPECIES_BITS) | to;}
+
+  /**
+   *  replace() records that a cell holding one packed code now holds another,
+   *  outside of a timestep.
+   */
+
+  void replace(int oldCode, int newCode) {
+	  population[bucket(oldCode, starveTime)]--;
+	  population[bucket(newCode, starveTime)]++;
+	  if((oldCode & Ocean.SPECIES_MASK) == Ocean.SHARK)
+		  sharks--;
+	  if((newCode & Ocean.SPECIES_MASK) == Ocean.SHARK)
+		  sharks++;
+  }
+
+  /**
+   *  replace() (with arrays) records that a run of length cells, starting at
+   *  start in the given species and hunger arrays, is about to be set to one
+   *  packed code, outside of a timestep.  It must be called before the cells
+   *  change.
+   */
+
+  void replace(byte[] cells, short[] hunger, int start, int length, int newCode) {
+	  for(int i = start; i < start + length; i++) {
+		  int contents = cells[i];
+
+		  population[bucket((hunger[i] << Ocean.SPECIES_BITS) | contents, starveTime)]--;
+		  if(contents == Ocean.SHARK)
+			  sharks--;
+	  }
+	  population[bucket(newCode, starveTime)] += length;
+	  if((newCode & Ocean.SPECIES_MASK) == Ocean.SHARK)
+		  sharks += length;
+  }
+
+  /**
+   *  recordStep() replaces the statistics with those of a timestep that
+   *  stepped every cell, tallied by the given kernels.
+   */
+
+  void recordStep(long generation, RowKernel... kernels) {
+	  Arrays.fill(population, 0);
+	  Arrays.fill(moves, 0);
+	  for(RowKernel kernel : kernels)
+		  addTallies(kernel);
+	  this.generation = generation;
+	  countSharks();
+  }
+
+  /**
+   *  recordPartialStep() updates the statistics for a timestep that stepped
+   *  only some cells, tallied by the given kernel.  Every other cell keeps its
+   *  contents, so it counts as moving from its species to itself.
+   */
+
+  void recordPartialStep(RowKernel kernel) {
+	  Arrays.fill(unstepped, 0);
+	  for(int b = 0; b < kernel.oldCodes.length; b++) {
+		  int code = RowKernel.code(b);
+
+		  unstepped[code & Ocean.SPECIES_MASK] += population[code] - kernel.oldCodes[b];
+		  population[code] -= kernel.oldCodes[b];
+	  }
+	  Arrays.fill(moves, 0);
+	  addTallies(kernel);
+	  for(int s = 0; s < unstepped.length; s++)
+		  moves[move(s, s)] += unstepped[s];
+	  generation++;
+	  countSharks();
+  }
+
+  /**
+   *  addTallies() adds the cells a kernel wrote to the population, and the
+   *  species they came from to the moves.
+   */
+
+  private void addTallies(RowKernel kernel) {
+	  for(int t = 0; t < kernel.tallies.length; t++) {
+		  int count = kernel.tallies[t];
+
+		  if(count != 0) {
+			  int code = RowKernel.code((t % kernel.half) >>> Ocean.SPECIES_BITS);
+			  int species = t & Ocean.SPECIES_MASK;
+
+			  population[code] += count;
+			  moves[move(species, code & Ocean.SPECIES_MASK)] += count;
+		  }
+	  }
+  }
+
+  private void countSharks() {
+	  sharks = 0;
+	  for(int c = Ocean.SHARK; c < population.length; c += 1 << Ocean.SPECIES_BITS)
+		  sharks += population[c];
+  }
+}
@@ -0,0 +1,390 @@
+/* HashlifeOcean.java */
+
+import java.util.*;
+
+/**
+ *  The HashlifeOcean class is an ocean stored as a quadtree of shared,
+ *  memoized nodes, in the manner of Gosper's Hashlife, so that it can jump
+ *  very many timesteps ahead at once.  It follows the same rules as Ocean.
+ *
+ *  A node of level k is a 2^k x 2^k square of cells:  a leaf (level 0) holds
+ *  one cell's packed code, (feeding << SPECIES_BITS) | species, so shark
+ *  hunger is part of a node's identity, and any other node holds its four
+ *  quadrants.  Nodes are canonical:  two squares with the same contents are
+ *  always the same node, so repeated patterns, above all large empty
+ *  regions, are stored once.  A cell's next contents depend only on its 3x3
+ *  neighborhood, so the center 2^(k-1) x 2^(k-1) square of a node of level k
+ *  is fully determined 2^(k-2) timesteps ahead, and each node remembers that
+ *  result, and the results of shorter jumps of 2^j timesteps, the first time
+ *  they are computed.  Every later occurrence of the same square anywhere in
+ *  the ocean, at any time, reuses it.
+ *
+ *  The torus is handled as a periodic tiling of the plane:  the ocean is
+ *  built into a square node whose side is the larger of its width and
+ *  height, repeated to fill the square, and a jump is computed on a node
+ *  made of copies of that square large enough to hold the jump's light
+ *  cone.  Both the width and the height must therefore be powers of two.
+ *
+ *  Hashlife pays off on oceans that settle down, repeat, or die out; on a
+ *  chaotic ocean few squares recur and it is far slower than Ocean.
+ *  The nodes are kept until there are more than MAX_NODES of them, when all
+ *  but those of the current generation are dropped.
+ */
+
+public class HashlifeOcean {
+
+  private static final int MAX_NODES = 1 << 22;
+
+  private int width;
+  private int height;
+  private int starveTime;
+  private int level; // the level of the torus node
+  private HashMap<Node, Node> nodes = new HashMap<Node, Node>();
+  private Node torus; // the current generation, as a square from (0, 0)
+  private long generation;
+
+  /**
+   *  A Node is a canonical square of cells.  results[j] is the center of the
+   *  square 2^j timesteps ahead, or null if it has not been computed yet.
+   */
+
+  private static final class Node {
+	  final int level;
+	  final int code; // for a leaf
+	  final Node nw;
+	  final Node ne;
+	  final Node sw;
+	  final Node se;
+	  final int hash;
+	  Node[] results;
+
+	  Node(int code) {
+		  level = 0;
+		  this.code = code;
+		  nw = ne = sw = se = null;
+		  hash = code * 0x9E3779B1;
+	  }
+
+	  Node(Node nw, Node ne, Node sw, Node se) {
+		  level = nw.level + 1;
+		  code = 0;
+		  this.nw = nw;
+		  this.ne = ne;
+		  this.sw = sw;
+		  this.se = se;
+
+		  int h = nw.hash;
+
+		  h = h * 0x9E3779B1 + ne.hash;
+		  h = h * 0x9E3779B1 + sw.hash;
+		  h = h * 0x9E3779B1 + se.hash;
+		  hash = h ^ (h >>> 16);
+	  }
+
+	  public int hashCode() {return hash;}
+
+	  /**
+	   *  equals() compares the quadrants by identity, which is enough because
+	   *  they are canonical themselves.
+	   */
+
+	  public boolean equals(Object o) {
+		  if(!(o instanceof Node))
+			  return false;
+
+		  Node other = (Node) o;
+
+		  return level == other.level && code == other.code && nw == other.nw && ne == other.ne
+				  && sw == other.sw && se == other.se;
+	  }
+  }
+
+  /**
+   *  HashlifeOcean() builds a quadtree of an ocean.
+   *  @throws IllegalArgumentException if the ocean's width or height is not
+   *          a power of two of at least 2.
+   */
+
+  public HashlifeOcean(Ocean sea) throws IllegalArgumentException {
+	  width = sea.width();
+	  height = sea.height();
+	  starveTime = sea.starveTime();
+	  if(width < 2 || height < 2 || Integer.bitCount(width) != 1 || Integer.bitCount(height) != 1)
+		  throw new IllegalArgumentException("The width and height must be powers of two of at least 2");
+	  level = Integer.numberOfTrailingZeros(Math.max(width, height));
+	  torus = build(sea.cellPlane(), sea.hungerPlane(), 0, 0, level);
+  }
+
+  private Node build(byte[] cells, short[] hunger, int x, int y, int k) {
+	  if(k == 0) {
+		  int i = (y % height) * width + (x % width);
+
+		  return leaf((cells[i] == Ocean.SHARK)? (hunger[i] << Ocean.SPECIES_BITS) | Ocean.SHARK: cells[i]);
+	  }
+
+	  int half = 1 << (k - 1);
+
+	  return join(build(cells, hunger, x, y, k - 1), build(cells, hunger, x + half, y, k - 1),
+			  build(cells, hunger, x, y + half, k - 1), build(cells, hunger, x + half, y + half, k - 1));
+  }
+
+  public int width() {return width;}
+
+  public int height() {return height;}
+
+  public int starveTime() {return starveTime;}
+
+  /**
+   *  generation() returns the number of timesteps taken since the ocean was
+   *  built.
+   */
+
+  public long generation() {return generation;}
+
+  /**
+   *  nodes() returns the number of distinct nodes currently remembered.
+   */
+
+  public int nodes() {return nodes.size();}
+
+  /**
+   *  cellContents() returns EMPTY, FISH, or SHARK, as Ocean.cellContents()
+   *  does.
+   */
+
+  public int cellContents(int x, int y) {return cell(x, y).code & Ocean.SPECIES_MASK;}
+
+  /**
+   *  sharkFeeding() returns the feeding of the shark in cell (x, y), as
+   *  Ocean.sharkFeeding() does.
+   */
+
+  public int sharkFeeding(int x, int y) {
+	  int code = cell(x, y).code;
+
+	  return ((code & Ocean.SPECIES_MASK) == Ocean.SHARK)? code >>> Ocean.SPECIES_BITS: -1;
+  }
+
+  private Node cell(int x, int y) {
+	  Node node = torus;
+
+	  for(int k = level - 1; k >= 0; k--) {
+		  boolean east = ((x >>> k) & 1) != 0;
+		  boolean south = ((y >>> k) & 1) != 0;
+
+		  node = south? (east? node.se: node.sw): (east? node.ne: node.nw);
+	  }
+	  return node;
+  }
+
+  /**
+   *  advance() performs a simulation timestep, with the same result as
+   *  Ocean.advance().
+   */
+
+  public void advance() {advance(1);}
+
+  /**
+   *  advance() (with a parameter) performs the given number of timesteps,
+   *  one jump per bit of the number, so a jump of a million timesteps costs
+   *  twenty jumps.
+   */
+
+  public void advance(long generations) {
+	  if(generations < 0)
+		  throw new IllegalArgumentException("generations must be nonnegative");
+	  for(int j = 0; j < 63; j++) {
+		  if((generations & (1L << j)) != 0)
+			  jump(j);
+	  }
+  }
+
+  /**
+   *  jump() advances the ocean 2^j timesteps.  The result of a tiling node of
+   *  level L is its center, which starts 2^(L-2) cells from the tiling's
+   *  origin; with L at least level + 2, that is a whole number of periods, so
+   *  the result's northwest corner is the torus itself.
+   */
+
+  private void jump(int j) {
+	  int top = Math.max(j + 2, level + 2);
+	  Node tiling = torus;
+
+	  for(int k = level; k < top; k++)
+		  tiling = join(tiling, tiling, tiling, tiling);
+
+	  Node next = result(tiling, j);
+
+	  while(next.level > level)
+		  next = next.nw;
+	  torus = next;
+	  generation += 1L << j;
+	  if(nodes.size() > MAX_NODES)
+		  collect();
+  }
+
+  /**
+   *  result() returns the center of a node of level k, at least 2, 2^j
+   *  timesteps ahead, with j at most k - 2.  The node is split into nine
+   *  overlapping squares of level k - 1, whose results make four squares of
+   *  level k - 1 around the center; their centers, after another 2^(k-3)
+   *  timesteps if j is k - 2, or as they are if not, make up the result.
+   */
+
+  private Node result(Node node, int j) {
+	  if(node.results == null)
+		  node.results = new Node[node.level - 1];
+	  if(node.results[j] != null)
+		  return node.results[j];
+
+	  Node result;
+
+	  if(node.level == 2)
+		  result = stepLeaves(node);
+	  else {
+		  int k = node.level;
+		  int first = (j == k - 2)? k - 3: j;
+		  Node r00 = result(node.nw, first);
+		  Node r01 = result(horizontal(node.nw, node.ne), first);
+		  Node r02 = result(node.ne, first);
+		  Node r10 = result(vertical(node.nw, node.sw), first);
+		  Node r11 = result(center(node), first);
+		  Node r12 = result(vertical(node.ne, node.se), first);
+		  Node r20 = result(node.sw, first);
+		  Node r21 = result(horizontal(node.sw, node.se), first);
+		  Node r22 = result(node.se, first);
+		  Node nw = join(r00, r01, r10, r11);
+		  Node ne = join(r01, r02, r11, r12);
+		  Node sw = join(r10, r11, r20, r21);
+		  Node se = join(r11, r12, r21, r22);
+
+		  if(j == k - 2)
+			  result = join(result(nw, k - 3), result(ne, k - 3), result(sw, k - 3), result(se, k - 3));
+		  else
+			  result = join(center(nw), center(ne), center(sw), center(se));
+	  }
+	  node.results[j] = result;
+	  return result;
+  }
+
+  /**
+   *  stepLeaves() steps the center 2 x 2 cells of a 4 x 4 node by one
+   *  timestep with Ocean.nextCell().
+   */
+
+  private Node stepLeaves(Node node) {
+	  int[] codes = new int[16];
+	  Node[] next = new Node[4];
+
+	  gather(node.nw, codes, 0);
+	  gather(node.ne, codes, 2);
+	  gather(node.sw, codes, 8);
+	  gather(node.se, codes, 10);
+	  for(int y = 1; y <= 2; y++) {
+		  for(int x = 1; x <= 2; x++) {
+			  int fish = 0;
+			  int sharks = 0;
+
+			  for(int dy = -1; dy <= 1; dy++) {
+				  for(int dx = -1; dx <= 1; dx++) {
+					  int species = codes[(y + dy) * 4 + x + dx] & Ocean.SPECIES_MASK;
+
+					  if(dx == 0 && dy == 0)
+						  continue;
+					  if(species == Ocean.FISH)
+						  fish++;
+					  else if(species == Ocean.SHARK)
+						  sharks++;
+				  }
+			  }
+
+			  int code = codes[y * 4 + x];
+
+			  next[(y - 1) * 2 + x - 1] = leaf(Ocean.nextCell(code & Ocean.SPECIES_MASK, code >>> Ocean.SPECIES_BITS,
+					  fish, sharks, starveTime));
+		  }
+	  }
+	  return join(next[0], next[1], next[2], next[3]);
+  }
+
+  private static void gather(Node quadrant, int[] codes, int offset) {
+	  codes[offset] = quadrant.nw.code;
+	  codes[offset + 1] = quadrant.ne.code;
+	  codes[offset + 4] = quadrant.sw.code;
+	  codes[offset + 5] = quadrant.se.code;
+  }
+
+  /**
+   *  center(), horizontal(), and vertical() return the square of the next
+   *  level down centered on a node, on the boundary between two nodes side
+   *  by side, and on the boundary between two nodes one above the other.
+   */
+
+  private Node center(Node node) {return join(node.nw.se, node.ne.sw, node.sw.ne, node.se.nw);}
+
+  private Node horizontal(Node west, Node east) {return join(west.ne, east.nw, west.se, east.sw);}
+
+  private Node vertical(Node north, Node south) {return join(north.sw, north.se, south.nw, south.ne);}
+
+  private Node leaf(int code) {return intern(new Node(code));}
+
+  private Node join(Node nw, Node ne, Node sw, Node se) {return intern(new Node(nw, ne, sw, se));}
+
+  private Node intern(Node node) {
+	  Node canonical = nodes.putIfAbsent(node, node);
+
+	  return (canonical == null)? node: canonical;
+  }
+
+  /**
+   *  collect() forgets every node that is not part of the current
+   *  generation, along with every remembered result.
+   */
+
+  private void collect() {
+	  nodes = new HashMap<Node, Node>();
+	  keep(torus);
+  }
+
+  private void keep(Node node) {
+	  if(nodes.putIfAbsent(node, node) != null)
+		  return;
+	  node.results = null;
+	  if(node.level > 0) {
+		  keep(node.nw);
+		  keep(node.ne);
+		  keep(node.sw);
+		  keep(node.se);
+	  }
+  }
+
+  /**
+   *  toOcean() copies the current generation into an Ocean.
+   */
+
+  public Ocean toOcean() {
+	  Ocean sea = new Ocean(width, height, starveTime);
+
+	  fill(sea, torus, 0, 0);
+	  return sea;
+  }
+
+  private void fill(Ocean sea, Node node, int x, int y) {
+	  if(x >= width || y >= height)
+		  return; // the rest of the square repeats the ocean
+	  if(node.level == 0) {
+		  if(node.code == Ocean.FISH)
+			  sea.addFish(x, y);
+		  else if((node.code & Ocean.SPECIES_MASK) == Ocean.SHARK)
+			  sea.addShark(x, y, node.code >>> Ocean.SPECIES_BITS);
+		  return;
+	  }
+
+	  int half = 1 << (node.level - 1);
+
+	  fill(sea, node.nw, x, y);
+	  fill(sea, node.ne, x + half, y);
+	  fill(sea, node.sw, x, y + half);
+	  fill(sea, node.se, x + half, y + half);
+  }
+}
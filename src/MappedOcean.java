@@ -0,0 +1,368 @@
+/* MappedOcean.java */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  The MappedOcean class is an ocean stored in a memory-mapped file instead
+ *  of on the heap, so its size is limited by the disk rather than by -Xmx,
+ *  and it can be reopened right where it left off after a restart.  It
+ *  follows the same rules as Ocean, stepping each row with a RowKernel over
+ *  a three-row window copied out of the file.
+ *
+ *  The file (version 1) holds a 64-byte header and two bodies.  The header
+ *  is, in little-endian order:
+ *
+ *    int     the magic number "SFMO"
+ *    int     the format version
+ *    int     width
+ *    int     height
+ *    int     starveTime
+ *    int     which body holds the current generation (0 or 1)
+ *    long    the number of timesteps taken since the file was created
+ *
+ *  Each body holds one little-endian 16-bit code per cell, row by row:  0 for
+ *  an empty cell, 1 for a fish, and 2 + feeding for a shark.  advance() reads
+ *  the current body and writes the next generation into the other one, then
+ *  flips the header to point at it.  A newly created file is sparse and all
+ *  zeros, which is an empty ocean.
+ *
+ *  The bodies are mapped in chunks of whole rows, each well under the 2GB a
+ *  single MappedByteBuffer can hold.
+ */
+
+public class MappedOcean implements Closeable {
+
+  private static final int MAGIC = 0x4F4D4653; // "SFMO" when read little-endian
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 64;
+  private static final int CURRENT = 20; // header offsets
+  private static final int GENERATION = 24;
+  private static final int CHUNK_BYTES = 1 << 30;
+
+  private int width;
+  private int height;
+  private int starveTime;
+  private int rowsPerChunk;
+  private FileChannel channel;
+  private MappedByteBuffer header;
+  private MappedByteBuffer[][] chunks; // chunks[body][c]
+  private CharBuffer[][] rows; // 16-bit views of the chunks
+  private int current;
+  private RowKernel kernel;
+
+  private byte[] windowCells; // three decoded rows for the kernel
+  private short[] windowHunger;
+  private byte[] rowCells; // one stepped row
+  private short[] rowHunger;
+  private char[] codes; // one row of file codes
+
+  private MappedOcean(FileChannel channel, int width, int height, int starveTime) throws IOException {
+	  long rowBytes = 2L * width;
+
+	  if(rowBytes > CHUNK_BYTES)
+		  throw new IllegalArgumentException("Ocean is too wide to map:  " + width);
+
+	  this.channel = channel;
+	  this.width = width;
+	  this.height = height;
+	  this.starveTime = starveTime;
+	  rowsPerChunk = (int) Math.min(height, CHUNK_BYTES / rowBytes);
+	  header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+	  header.order(ByteOrder.LITTLE_ENDIAN);
+
+	  int chunkCount = (height + rowsPerChunk - 1) / rowsPerChunk;
+	  long bodyBytes = rowBytes * height;
+
+	  chunks = new MappedByteBuffer[2][chunkCount];
+	  rows = new CharBuffer[2][chunkCount];
+	  for(int b = 0; b < 2; b++) {
+		  for(int c = 0; c < chunkCount; c++) {
+			  int chunkRows = Math.min(rowsPerChunk, height - c * rowsPerChunk);
+
+			  chunks[b][c] = channel.map(FileChannel.MapMode.READ_WRITE,
+					  HEADER_SIZE + b * bodyBytes + c * rowsPerChunk * rowBytes, chunkRows * rowBytes);
+			  rows[b][c] = chunks[b][c].order(ByteOrder.LITTLE_ENDIAN).asCharBuffer();
+		  }
+	  }
+
+	  kernel = new RowKernel(width, height, starveTime, false);
+	  windowCells = new byte[3 * width];
+	  windowHunger = new short[3 * width];
+	  rowCells = new byte[width];
+	  rowHunger = new short[width];
+	  codes = new char[width];
+  }
+
+  /**
+   *  create() creates a file holding an empty ocean, replacing anything the
+   *  file held before.
+   *  @param file is the file to create.
+   *  @param i is the width of the ocean.
+   *  @param j is the height of the ocean.
+   *  @param starveTime is the number of timesteps sharks survive without food.
+   */
+
+  public static MappedOcean create(Path file, int i, int j, int starveTime) throws IOException {
+	  if(i < 1 || j < 1)
+		  throw new IllegalArgumentException("Ocean dimensions must be positive:  " + i + " x " + j);
+	  if(starveTime < 0 || starveTime > Ocean.MAX_FEEDING)
+		  throw new IllegalArgumentException("starveTime must be between 0 and " + Ocean.MAX_FEEDING);
+
+	  FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+			  StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	  try {
+		  MappedOcean sea = new MappedOcean(channel, i, j, starveTime);
+
+		  sea.header.putInt(0, MAGIC);
+		  sea.header.putInt(4, VERSION);
+		  sea.header.putInt(8, i);
+		  sea.header.putInt(12, j);
+		  sea.header.putInt(16, starveTime);
+		  sea.header.putInt(CURRENT, 0);
+		  sea.header.putLong(GENERATION, 0);
+		  return sea;
+	  } catch(IOException | RuntimeException e) {
+		  channel.close();
+		  throw e;
+	  }
+  }
+
+  /**
+   *  create() creates a file holding a copy of an Ocean.
+   */
+
+  public static MappedOcean create(Path file, Ocean sea) throws IOException {
+	  MappedOcean mapped = create(file, sea.width(), sea.height(), sea.starveTime());
+
+	  for(int y = 0; y < sea.height(); y++) {
+		  for(int x = 0; x < sea.width(); x++) {
+			  int contents = sea.cellContents(x, y);
+
+			  mapped.codes[x] = code(contents, (contents == Ocean.SHARK)? sea.sharkFeeding(x, y): 0);
+		  }
+		  mapped.putRow(mapped.current, y);
+	  }
+	  return mapped;
+  }
+
+  /**
+   *  open() opens a file written by create(), at the generation it was last
+   *  advanced to.
+   *  @throws IOException if the file is not a mapped ocean of this version,
+   *          or is too short to hold its ocean.
+   */
+
+  public static MappedOcean open(Path file) throws IOException {
+	  FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	  try {
+		  ByteBuffer fields = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		  while(fields.hasRemaining() && channel.read(fields, fields.position()) >= 0);
+		  if(fields.hasRemaining() || fields.getInt(0) != MAGIC)
+			  throw new IOException("Not a mapped ocean file:  " + file);
+		  if(fields.getInt(4) != VERSION)
+			  throw new IOException("Unsupported mapped ocean version " + fields.getInt(4));
+
+		  int i = fields.getInt(8);
+		  int j = fields.getInt(12);
+		  int starveTime = fields.getInt(16);
+		  int current = fields.getInt(CURRENT);
+
+		  if(i < 1 || j < 1 || starveTime < 0 || starveTime > Ocean.MAX_FEEDING || (current & ~1) != 0)
+			  throw new IOException("Bad mapped ocean header:  " + file);
+		  if(channel.size() < HEADER_SIZE + 4L * i * j)
+			  throw new IOException("Mapped ocean file is truncated:  " + file);
+
+		  MappedOcean sea = new MappedOcean(channel, i, j, starveTime);
+
+		  sea.current = current;
+		  return sea;
+	  } catch(IOException | RuntimeException e) {
+		  channel.close();
+		  throw e;
+	  }
+  }
+
+  public int width() {return width;}
+
+  public int height() {return height;}
+
+  public int starveTime() {return starveTime;}
+
+  /**
+   *  generation() returns the number of timesteps taken since the file was
+   *  created.
+   */
+
+  public long generation() {return header.getLong(GENERATION);}
+
+  /**
+   *  addFish() places a fish in cell (x, y) if the cell is empty.  If the
+   *  cell is already occupied, leave the cell as it is.
+   */
+
+  public void addFish(int x, int y) {
+	  if(getCode(x, y) == 0)
+		  setCode(x, y, code(Ocean.FISH, 0));
+  }
+
+  /**
+   *  addShark() places a newborn shark in cell (x, y) if the cell is empty,
+   *  or, given a feeding, a shark with that feeding.  If the cell is already
+   *  occupied, leave the cell as it is.
+   */
+
+  public void addShark(int x, int y) {addShark(x, y, starveTime);}
+
+  public void addShark(int x, int y, int feeding) throws IllegalArgumentException {
+	  if(feeding < 0 || feeding > Ocean.MAX_FEEDING)
+		  throw new IllegalArgumentException("feeding must be between 0 and " + Ocean.MAX_FEEDING);
+	  if(getCode(x, y) == 0)
+		  setCode(x, y, code(Ocean.SHARK, feeding));
+  }
+
+  /**
+   *  cellContents() returns EMPTY, FISH, or SHARK for cell (x, y), just as
+   *  Ocean.cellContents() does.
+   */
+
+  public int cellContents(int x, int y) {
+	  int code = getCode(x, y);
+
+	  return (code == 0)? Ocean.EMPTY: (code == 1)? Ocean.FISH: Ocean.SHARK;
+  }
+
+  /**
+   *  sharkFeeding() returns the feeding of the shark in cell (x, y), or -1 if
+   *  the cell does not hold a shark, just as Ocean.sharkFeeding() does.
+   */
+
+  public int sharkFeeding(int x, int y) {
+	  int code = getCode(x, y);
+
+	  return (code < 2)? -1: code - 2;
+  }
+
+  /**
+   *  advance() performs a simulation timestep, with the same result as
+   *  Ocean.advance().  It reads the current body a row at a time, so only
+   *  five rows of the ocean are ever held on the heap.
+   */
+
+  public void advance() {
+	  int next = 1 - current;
+	  int above = 0;
+	  int row = width;
+	  int below = 2 * width;
+
+	  kernel.clearCounts(); // the tallies are not used, but must not overflow
+	  getRow(current, height - 1, above);
+	  getRow(current, 0, row);
+	  getRow(current, 1 % height, below);
+
+	  for(int y = 0; y < height; y++) {
+		  kernel.step(windowCells, windowHunger, above, row, below, rowCells, rowHunger, 0, 0, width);
+		  for(int x = 0; x < width; x++)
+			  codes[x] = code(rowCells[x], rowHunger[x]);
+		  putRow(next, y);
+
+		  int oldest = above;
+
+		  above = row;
+		  row = below;
+		  below = oldest;
+		  if(y + 1 < height)
+			  getRow(current, (y + 2) % height, below);
+	  }
+
+	  current = next;
+	  header.putInt(CURRENT, current);
+	  header.putLong(GENERATION, header.getLong(GENERATION) + 1);
+  }
+
+  /**
+   *  toOcean() copies the current generation into an Ocean.  The ocean must
+   *  be small enough to fit on the heap.
+   */
+
+  public Ocean toOcean() {
+	  Ocean sea = new Ocean(width, height, starveTime);
+
+	  for(int y = 0; y < height; y++) {
+		  rows[current][y / rowsPerChunk].get((y % rowsPerChunk) * width, codes, 0, width);
+		  for(int x = 0; x < width; x++) {
+			  if(codes[x] == 1)
+				  sea.addFish(x, y);
+			  else if(codes[x] > 1)
+				  sea.addShark(x, y, codes[x] - 2);
+		  }
+	  }
+	  return sea;
+  }
+
+  /**
+   *  flush() forces every change made so far out to the storage device.
+   *  Without it, changes still reach the file when the operating system
+   *  writes its cached pages back, even if this process exits first.
+   */
+
+  public void flush() {
+	  for(MappedByteBuffer chunk : chunks[current])
+		  chunk.force();
+	  header.force();
+  }
+
+  /**
+   *  close() closes the file.  The MappedOcean cannot be used afterward.
+   */
+
+  public void close() throws IOException {
+	  channel.close();
+  }
+
+  private static char code(int contents, int feeding) {
+	  return (char) ((contents == Ocean.SHARK)? 2 + feeding: (contents == Ocean.FISH)? 1: 0);
+  }
+
+  /**
+   *  getCode() and setCode() read and write the code of cell (x, y) in the
+   *  current body.  They throw an IndexOutOfBoundsException if the cell is
+   *  outside the ocean, as Ocean does, rather than wrap into another row.
+   */
+
+  private int getCode(int x, int y) {
+	  Objects.checkIndex(y, height);
+	  return rows[current][y / rowsPerChunk].get((y % rowsPerChunk) * width + Objects.checkIndex(x, width));
+  }
+
+  private void setCode(int x, int y, char code) {
+	  Objects.checkIndex(y, height);
+	  rows[current][y / rowsPerChunk].put((y % rowsPerChunk) * width + Objects.checkIndex(x, width), code);
+  }
+
+  /**
+   *  getRow() decodes row y of a body into the window, starting at offset.
+   */
+
+  private void getRow(int body, int y, int offset) {
+	  rows[body][y / rowsPerChunk].get((y % rowsPerChunk) * width, codes, 0, width);
+	  for(int x = 0; x < width; x++) {
+		  int code = codes[x];
+
+		  windowCells[offset + x] = (byte) ((code == 0)? Ocean.EMPTY: (code == 1)? Ocean.FISH: Ocean.SHARK);
+		  windowHunger[offset + x] = (short) ((code < 2)? 0: code - 2);
+	  }
+  }
+
+  /**
+   *  putRow() writes codes into row y of a body.
+   */
+
+  private void putRow(int body, int y) {
+	  rows[body][y / rowsPerChunk].put((y % rowsPerChunk) * width, codes, 0, width);
+  }
+}
@@ -1,5 +1,8 @@
 /* Ocean.java */
 
+import java.util.*;
+import java.util.concurrent.*;
+
 /**
  *  The Ocean class defines an object that models an ocean full of sharks and
  *  fish.  Descriptions of the methods you must implement appear below.  They
@@ -25,6 +28,13 @@ public class Ocean {
   public final static int SHARK = 1;
   public final static int FISH = 2;
 
+  /**
+   *  MAX_FEEDING is the largest starveTime or shark feeding value an Ocean can
+   *  store; hunger is kept in a short per cell.
+   */
+
+  public final static int MAX_FEEDING = Short.MAX_VALUE;
+
   /**
    *  Define any variables associated with an Ocean object here.  These
    *  variables MUST be private.
@@ -32,9 +42,24 @@ public class Ocean {
   private int width;
   private int height;
   private int starveTime;
-  private OceanTile[][] grid;
-
 
+  /**
+   *  Cells are stored row by row in flat primitive arrays rather than as one
+   *  object per cell:  cell (x, y) lives at index y * width + x.  The cells
+   *  array holds the species of each cell, and the hunger array holds the
+   *  feeding value of each shark (it is left at zero for fish and empty cells).
+   */
+  private byte[] cells;
+  private short[] hunger;
+  private byte[] nextCells; // the generation advance() writes into, or null
+  private short[] nextHunger;
+  private RowKernel kernel; // created by the first timestep
+  private GenerationStats stats; // counts of the current generation, kept up to date
+  private ActivityMap activity; // blocks advance() must step, or null to step them all
+  private BandStep[] bands; // row bands for advance(ForkJoinPool), or null
+  private RowKernel[] bandKernels; // the kernel of each band
+  private AllBands allBands;
+  private TextRenderer renderer; // for printGrid(), or null
 
   /**
    *  The following methods are required for Part I.
@@ -48,17 +73,18 @@ public class Ocean {
    *  @param starveTime is the number of timesteps sharks survive without food.
    */
 
-  public Ocean(int i, int j, int starveTime) {
+  public Ocean(int i, int j, int starveTime) throws IllegalArgumentException {
+	  if(i < 1 || j < 1 || (long) i * j > Integer.MAX_VALUE)
+		  throw new IllegalArgumentException("Ocean dimensions must be positive and hold at most " + Integer.MAX_VALUE + " cells");
+	  if(starveTime < 0 || starveTime > MAX_FEEDING)
+		  throw new IllegalArgumentException("starveTime must be between 0 and " + MAX_FEEDING);
+	  
 	  width = i;
 	  height = j;
 	  this.starveTime = starveTime;
-	  grid = new OceanTile[width][height];
-	  
-	  for(int x = 0; x < width; x++) {
-		  for(int y = 0; y < height; y++) {
-			  grid[x][y] = new EmptyTile(x, y);
-		  }
-	  }
+	  cells = new byte[i * j]; // EMPTY is zero, so a new array is an empty ocean
+	  hunger = new short[i * j];
+	  stats = new GenerationStats(starveTime, i * j);
   }
 
   /**
@@ -90,8 +116,14 @@ public class Ocean {
    */
 
   public void addFish(int x, int y) {
-	  if(grid[x][y].getContents() == EMPTY)
-		  grid[x][y] = new FishTile(x, y);
+	  int i = index(x, y);
+	  
+	  if(cells[i] == EMPTY) {
+		  cells[i] = FISH;
+		  stats.replace(EMPTY, FISH);
+		  if(activity != null)
+			  activity.touch(x, y);
+	  }
   }
 
   /**
@@ -102,10 +134,7 @@ public class Ocean {
    *  @param y is the y-coordinate of the cell to place a shark in.
    */
 
-  public void addShark(int x, int y) {
-	  if(grid[x][y].getContents() == EMPTY)
-		  grid[x][y] = new SharkTile(x, y, starveTime);
-  }
+  public void addShark(int x, int y) {addShark(x, y, starveTime);}
 
   /**
    *  cellContents() returns EMPTY if cell (x, y) is empty, FISH if it contains
@@ -114,9 +143,19 @@ public class Ocean {
    *  @param y is the y-coordinate of the cell whose contents are queried.
    */
 
-  public int cellContents(int x, int y) {return grid[x][y].getContents();}
+  public int cellContents(int x, int y) {return cells[index(x, y)];}
 
-  public int cellContents(int i) {return cellContents(i % width, i / width);}
+  public int cellContents(int i) {return cells[i];}
+  
+  /**
+   *  index() returns the index of cell (x, y) in the flat arrays.  Each
+   *  coordinate is checked on its own, since an x past the end of a row would
+   *  otherwise land quietly in the next row.
+   */
+  
+  private int index(int x, int y) {
+	  return Objects.checkIndex(y, height) * width + Objects.checkIndex(x, width);
+  }
   
   /**
    *  timeStep() performs a simulation timestep as described in README.
@@ -125,58 +164,200 @@ public class Ocean {
 
   public Ocean timeStep() {
 	  Ocean futureOcean = new Ocean(width, height, starveTime);
-	  int[] surroundings;
-	  for(int y = 0; y < height; y++) {
-		  for(int x = 0; x < width; x++) {
-			  surroundings = getSurroundings(validateX(x), validateY(y));
-		
-			  futureOcean.grid[x][y] = grid[x][y].step(surroundings[FISH], surroundings[SHARK]);
-		  }
-	  }
+	  
+	  RowKernel futureKernel = futureOcean.kernel();
+	  
+	  // Step with the new ocean's kernel, so that timeStep() only reads this one.
+	  futureKernel.clearCounts();
+	  stepRows(futureKernel, 0, height, futureOcean.cells, futureOcean.hunger);
+	  futureOcean.stats.recordStep(stats.generation() + 1, futureKernel);
 	  
 	  return futureOcean;
-  }  
+  }
   
-  private int[] getSurroundings(int xCoord, int yCoord) {
-	  int[] surroundings = new int[3];
+  /**
+   *  advance() performs a simulation timestep in place.  The Ocean keeps a
+   *  second generation of cells that the timestep is written into, and the
+   *  two generations are swapped afterward, so apart from allocating that
+   *  second generation on the first call, advance() allocates nothing.
+   */
+  
+  public void advance() {
+	  if(nextCells == null) {
+		  nextCells = new byte[cells.length];
+		  nextHunger = new short[hunger.length];
+	  }
 	  
-	  //System.out.println("origin = " + xCoord + ", " + yCoord);
+	  kernel().clearCounts();
+	  if(activity == null) {
+		  stepRows(kernel, 0, height, nextCells, nextHunger);
+		  stats.recordStep(stats.generation() + 1, kernel);
+	  }
+	  else {
+		  stepActiveBlocks();
+		  stats.recordPartialStep(kernel);
+	  }
+	  swapGenerations();
+  }
+  
+  /**
+   *  trackActivity() turns active-region tracking on or off.  While it is on,
+   *  advance() divides the ocean into blocks and steps only the blocks that
+   *  changed during the last timestep or border one that did; every other
+   *  block is known to stay as it is.  In a sparse or settled ocean, the cost
+   *  of a timestep then follows the part of the ocean that is still changing
+   *  rather than its area.  Results are identical either way.
+   *  @param track is true to turn tracking on, false to turn it off.
+   */
+  
+  public void trackActivity(boolean track) {
+	  if(!track)
+		  activity = null;
+	  else if(activity == null)
+		  activity = new ActivityMap(width, height);
+	  kernel().countOldCodes(track);
+  }
+  
+  /**
+   *  kernel() returns the kernel for this ocean's timesteps, creating it the
+   *  first time it is needed, since oceans that are never stepped need none.
+   */
+  
+  private RowKernel kernel() {
+	  if(kernel == null)
+		  kernel = new RowKernel(width, height, starveTime, true);
+	  return kernel;
+  }
+  
+  /**
+   *  stepActiveBlocks() writes the next generation of the active blocks into
+   *  the back buffer.  A block that is skipped did not change last timestep,
+   *  so the back buffer, which holds the last generation, already has the
+   *  block's next contents.
+   */
+  
+  private void stepActiveBlocks() {
+	  int size = ActivityMap.BLOCK_SIZE;
 	  
-	  for(int y = yCoord - 1; y <= yCoord + 1; y++) {
-		  for(int x = xCoord - 1; x <= xCoord + 1; x++) {
+	  activity.plan();
+	  for(int by = 0; by < activity.blocksHigh(); by++) {
+		  int y1 = Math.min(height, (by + 1) * size);
+		  
+		  for(int bx = 0; bx < activity.blocksWide(); bx++) {
+			  if(!activity.isActive(bx, by))
+				  continue;
+			  
+			  int x0 = bx * size;
+			  int x1 = Math.min(width, x0 + size);
+			  boolean changed = false;
 			  
-			  if(!((validateX(x) == xCoord) && (validateY(y) == yCoord))){
-				  //System.out.println("\tchecking: " + validateX(x) + ", " + validateY(y));
-				  if(cellContents(validateX(x), validateY(y)) == FISH) {
-					 // System.out.println("\t\tfish found");
-					  
-					  surroundings[FISH]++;
-				  }
-				  else if(cellContents(validateX(x), validateY(y)) == SHARK) {
-					 // System.out.println("\t\tshark found");
-					  surroundings[SHARK]++;
-				  }
+			  for(int y = by * size; y < y1; y++) {
+				  int row = y * width;
+				  int above = ((y == 0)? height - 1: y - 1) * width;
+				  int below = ((y == height - 1)? 0: y + 1) * width;
+				  
+				  changed |= kernel.step(cells, hunger, above, row, below, nextCells, nextHunger, row, x0, x1);
 			  }
+			  if(changed)
+				  activity.setChanged(bx, by);
 		  }
 	  }
+  }
+  
+  /**
+   *  advance() (with a pool) performs the same in-place timestep, but splits
+   *  the ocean into bands of rows and steps the bands in parallel on the
+   *  given pool.  Every cell's next state depends only on the current
+   *  generation, so the result is identical to advance() without a pool.
+   *  The band tasks are kept and reused from one timestep to the next.
+   *  @param pool is the pool to step the bands on.
+   */
+  
+  public void advance(ForkJoinPool pool) {
+	  if(nextCells == null) {
+		  nextCells = new byte[cells.length];
+		  nextHunger = new short[hunger.length];
+	  }
+	  
+	  int bandCount = Math.min(height, pool.getParallelism() * BANDS_PER_THREAD);
+	  
+	  if(bands == null || bands.length != bandCount) {
+		  bands = new BandStep[bandCount];
+		  bandKernels = new RowKernel[bandCount];
+		  
+		  for(int k = 0; k < bandCount; k++) {
+			  bandKernels[k] = new RowKernel(width, height, starveTime, true);
+			  bands[k] = new BandStep(bandKernels[k], (int) ((long) k * height / bandCount),
+					  (int) ((long) (k + 1) * height / bandCount));
+		  }
+		  allBands = new AllBands();
+	  }
+	  else {
+		  for(int k = 0; k < bandCount; k++)
+			  bands[k].reinitialize();
+		  allBands.reinitialize();
+	  }
+	  
+	  pool.invoke(allBands);
+	  stats.recordStep(stats.generation() + 1, bandKernels);
+	  swapGenerations();
+	  if(activity != null)
+		  activity.touchAll(); // every cell was stepped, so no block can be skipped next time
+  }
+  
+  private static final int BANDS_PER_THREAD = 4; // extra bands even out uneven rows
+  
+  private void swapGenerations() {
+	  byte[] oldCells = cells;
+	  short[] oldHunger = hunger;
 	  
-	  return surroundings;
+	  cells = nextCells;
+	  hunger = nextHunger;
+	  nextCells = oldCells;
+	  nextHunger = oldHunger;
+  }
+  
+  /**
+   *  stepRows() writes the next generation of rows y0 through y1 - 1 into the
+   *  given arrays, reading only the current generation.
+   */
+  
+  private void stepRows(RowKernel kernel, int y0, int y1, byte[] futureCells, short[] futureHunger) {
+	  for(int y = y0; y < y1; y++) {
+		  int row = y * width;
+		  int above = ((y == 0)? height - 1: y - 1) * width;
+		  int below = ((y == height - 1)? 0: y + 1) * width;
+		  
+		  kernel.step(cells, hunger, above, row, below, futureCells, futureHunger, row, 0, width);
+	  }
   }
   
-  private int validateX(int x) {
-	  if(x < 0)
-		  return width - 1;
-	  if(x >= width)
-		  return 0;
-	  return x;
+  /**
+   *  A BandStep steps a band of rows with a kernel of its own, so the bands'
+   *  tallies for GenerationStats never contend.
+   */
+  
+  final class BandStep extends RecursiveAction {
+	  private static final long serialVersionUID = 1L;
+	  private final RowKernel kernel;
+	  private final int y0;
+	  private final int y1;
+	  
+	  BandStep(RowKernel kernel, int y0, int y1) {
+		  this.kernel = kernel;
+		  this.y0 = y0;
+		  this.y1 = y1;
+	  }
+	  
+	  protected void compute() {
+		  kernel.clearCounts();
+		  stepRows(kernel, y0, y1, nextCells, nextHunger);
+	  }
   }
   
-  private int validateY(int y) {
-	  if(y < 0)
-		  return height - 1;
-	  if(y >= height)
-		  return 0;
-	  return y;
+  final class AllBands extends RecursiveAction {
+	  private static final long serialVersionUID = 1L;
+	  protected void compute() {invokeAll(bands);}
   }
   
   /**
@@ -197,9 +378,19 @@ public class Ocean {
    *         before the shark will starve.  It's up to you, but be consistent.
    */
 
-  public void addShark(int x, int y, int feeding) {	  
-	  if(grid[x][y].getContents() == EMPTY)
-		  grid[x][y] = new SharkTile(x, y, feeding);
+  public void addShark(int x, int y, int feeding) throws IllegalArgumentException {
+	  if(feeding < 0 || feeding > MAX_FEEDING)
+		  throw new IllegalArgumentException("feeding must be between 0 and " + MAX_FEEDING);
+	  
+	  int i = index(x, y);
+	  
+	  if(cells[i] == EMPTY) {
+		  cells[i] = SHARK;
+		  hunger[i] = (short) feeding;
+		  stats.replace(EMPTY, (feeding << SPECIES_BITS) | SHARK);
+		  if(activity != null)
+			  activity.touch(x, y);
+	  }
   }
 
   /**
@@ -218,100 +409,101 @@ public class Ocean {
    *  @param y is the y-coordinate of the cell whose contents are queried.
    */
 
-  public int sharkFeeding(int x, int y) {
-	  if(grid[x][y] instanceof SharkTile)
-		  return ((SharkTile)grid[x][y]).getHunger();
-	  
-	  return -1;
-  }
+  public int sharkFeeding(int x, int y) {return sharkFeeding(index(x, y));}
 
-  public int sharkFeeding(int i) {return sharkFeeding(i % width, i / width);}
+  public int sharkFeeding(int i) {return (cells[i] == SHARK)? hunger[i]: -1;}
   
-  abstract class OceanTile {
-	  int xCoord;
-	  int yCoord;
-	  int contains;
-	  
-	  public int getContents() {return contains;}
-	  
-	  
-	  
-	  public abstract OceanTile step(int fish, int sharks);
-  }
+  /**
+   *  stats() returns the statistics of the current generation:  its fish and
+   *  shark counts and hunger histogram, and the births, predation, and
+   *  starvation of the timestep that produced it.  They are tallied during
+   *  the timestep itself, and the same GenerationStats is updated in place by
+   *  every timestep; copy it to keep it.
+   */
   
-  final class SharkTile extends OceanTile {
-	  int hunger;
-	  
+  public GenerationStats stats() {return stats;}
+  
+  /**
+   *  cellPlane() and hungerPlane() return the arrays holding the current
+   *  generation, row by row, for code that converts whole oceans at once,
+   *  such as the RunLengthEncoding constructor.  The hunger of fish and empty
+   *  cells is always zero.  The arrays must be treated as read-only, and are
+   *  only valid until the next call to advance().
+   */
+  
+  byte[] cellPlane() {return cells;}
+  
+  short[] hungerPlane() {return hunger;}
+  
+  /**
+   *  fillRun() sets a run of consecutive cells, counted row by row as in
+   *  cellContents(int), to the same contents, whatever they held before.
+   *  @param start is the index of the first cell of the run.
+   *  @param length is the number of cells in the run.
+   *  @param contents is EMPTY, FISH, or SHARK.
+   *  @param feeding is the hunger of the sharks, if contents is SHARK.
+   */
+  
+  void fillRun(int start, int length, int contents, int feeding) {
+	  int code = (contents == SHARK)? (feeding << SPECIES_BITS) | SHARK: contents;
 	  
-	  public SharkTile(int x, int y, int hunger) {
-		  xCoord = x;
-		  yCoord = y;
-		  contains = Ocean.SHARK;
-		  this.hunger = hunger;
-	  }
+	  stats.replace(cells, hunger, start, length, code);
+	  Arrays.fill(cells, start, start + length, (byte) contents);
+	  Arrays.fill(hunger, start, start + length, (short) ((contents == SHARK)? feeding: 0));
 	  
-	  public OceanTile step(int fish, int sharks) {
-		  if(fish > 0)
-			  hunger = starveTime() + 1;
-		  if(hunger - 1 < 0)
-			  return new EmptyTile(xCoord, yCoord);
-		  return new SharkTile(xCoord, yCoord, hunger - 1);
+	  if(activity != null) {
+		  for(int i = start; i < start + length; ) {
+			  int x = i % width;
+			  
+			  activity.touch(x, i / width);
+			  i += Math.min(ActivityMap.BLOCK_SIZE - x % ActivityMap.BLOCK_SIZE, width - x);
+		  }
 	  }
-	  
-	  public int getHunger() {return hunger;}
   }
   
-  final class EmptyTile extends OceanTile {
-	  public EmptyTile(int x, int y) {
-		  xCoord = x;
-		  yCoord = y;
-		  contains = Ocean.EMPTY;
-	  }
-
-	  public OceanTile step(int fish, int sharks) {
-		  if(fish < 2)
-			  return new EmptyTile(xCoord, yCoord);
-		  else if(sharks < 2)
-			  return new FishTile(xCoord, yCoord);
-		  return new SharkTile(xCoord, yCoord, starveTime());
-	  }
-  }
+  /**
+   *  nextCell() applies the timestep rules described in README to a single
+   *  cell.  The result is packed as (feeding << SPECIES_BITS) | species, with a
+   *  feeding of zero for anything but a shark.
+   *  @param contents is EMPTY, FISH, or SHARK.
+   *  @param feeding is the hunger of the cell if it contains a shark.
+   *  @param fish is the number of neighbors that are fish.
+   *  @param sharks is the number of neighbors that are sharks.
+   *  @param starveTime is the number of timesteps sharks survive without food.
+   *  @return the packed contents of the cell after one timestep.
+   */
   
-  final class FishTile extends OceanTile {
-	  public FishTile(int x, int y) {
-		  xCoord = x;
-		  yCoord = y;
-		  contains = Ocean.FISH;
-	  }
+  static int nextCell(int contents, int feeding, int fish, int sharks, int starveTime) {
+	  switch(contents) {
 	  
-	  public OceanTile step(int fish, int sharks) {
+	  case SHARK:
+		  if(fish > 0)
+			  return (starveTime << SPECIES_BITS) | SHARK;
+		  if(feeding == 0)
+			  return EMPTY;
+		  return ((feeding - 1) << SPECIES_BITS) | SHARK;
+	  case FISH:
 		  if(sharks == 1)
-			  return new EmptyTile(xCoord, yCoord);
+			  return EMPTY;
 		  else if(sharks > 1)
-			  return new SharkTile(xCoord, yCoord, starveTime());
-		  return new FishTile(xCoord, yCoord);
+			  return (starveTime << SPECIES_BITS) | SHARK;
+		  return FISH;
+	  default:
+		  if(fish < 2)
+			  return EMPTY;
+		  else if(sharks < 2)
+			  return FISH;
+		  return (starveTime << SPECIES_BITS) | SHARK;
 	  }
   }
   
+  static final int SPECIES_BITS = 2;
+  static final int SPECIES_MASK = (1 << SPECIES_BITS) - 1;
+  
   public void printGrid() {
-	  for(int i = 0; i < width + 2; i++)
-		  System.out.print("_");
-	  System.out.println();
-	  for(int y = 0; y < height; y++) {
-		  System.out.print("|");
-		  for(int x = 0; x < width; x++) {
-			  if(grid[x][y] instanceof EmptyTile) 
-				  System.out.print(" ");
-			  else if(grid[x][y] instanceof FishTile)
-				  System.out.print("~");
-			  else
-				  System.out.print("S"); //System.out.print(sharkFeeding(x, y));
-		  }
-		  System.out.println("|");
-	  }
-	  for(int i = 0; i < width + 2; i++)
-		  System.out.print("_");
-	  System.out.println();
+	  if(renderer == null)
+		  renderer = new TextRenderer(width, height, '_', false);
+	  renderer.print(this, System.out);
   }
   
   
@@ -0,0 +1,61 @@
+/* OceanEncoding.java */
+
+/**
+ *  The OceanEncoding interface is what RunLengthEncoding and
+ *  PackedRunLengthEncoding have in common:  a run-length encoding of an
+ *  Ocean that can be walked run by run, changed cell by cell, stepped, and
+ *  expanded back into an Ocean.  Code that only needs those operations can
+ *  declare its encodings as OceanEncodings and take either class.
+ */
+
+public interface OceanEncoding {
+
+  int width();
+
+  int height();
+
+  int starveTime();
+
+  /**
+   *  restartRuns() and nextRun() walk through the runs, as described in
+   *  RunLengthEncoding.
+   */
+
+  void restartRuns();
+
+  TypeAndSize nextRun();
+
+  /**
+   *  cursor() returns a new RunCursor before the first run.
+   */
+
+  RunCursor cursor();
+
+  /**
+   *  toOcean() expands the encoding into an Ocean.
+   */
+
+  Ocean toOcean();
+
+  /**
+   *  timeStep() returns an encoding of the ocean one timestep later, of the
+   *  same class as this one.
+   */
+
+  OceanEncoding timeStep();
+
+  /**
+   *  addFish() and addShark() place a fish or a newborn shark in cell (x, y)
+   *  if it is empty, as Ocean's do.
+   */
+
+  void addFish(int x, int y);
+
+  void addShark(int x, int y);
+
+  /**
+   *  check() throws an IllegalStateException if the encoding is invalid.
+   */
+
+  void check() throws IllegalStateException;
+}
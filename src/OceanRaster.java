@@ -0,0 +1,67 @@
+/* OceanRaster.java */
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ *  The OceanRaster class renders an Ocean into a BufferedImage with one
+ *  pixel per cell, writing the pixel colors straight into the image's int[]
+ *  raster instead of filling a rectangle per cell through a Graphics.  It
+ *  remembers what it drew last, so update() only writes the pixels of cells
+ *  whose species changed.  draw() then scales the whole image onto the
+ *  screen in a single call.
+ */
+
+public class OceanRaster {
+
+  private static final int[] COLOR = {0xFFFFFF, 0xFF0000, 0x00FF00}; // indexed by EMPTY, SHARK, FISH
+
+  private BufferedImage image;
+  private int[] pixels;
+  private byte[] drawn; // the species each pixel shows
+
+  /**
+   *  OceanRaster() creates a raster for oceans of the given size, showing an
+   *  empty ocean.
+   */
+
+  public OceanRaster(int width, int height) {
+	  image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	  pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	  drawn = new byte[width * height];
+	  Arrays.fill(pixels, COLOR[Ocean.EMPTY]);
+  }
+
+  /**
+   *  update() brings the raster up to date with an ocean of its size.
+   *  @return the number of pixels that changed.
+   */
+
+  public int update(Ocean sea) {
+	  byte[] cells = sea.cellPlane();
+	  int changed = 0;
+
+	  if(cells.length != drawn.length)
+		  throw new IllegalArgumentException("Ocean is not the size of the raster");
+	  for(int i = 0; i < cells.length; i++) {
+		  if(cells[i] != drawn[i]) {
+			  drawn[i] = cells[i];
+			  pixels[i] = COLOR[cells[i]];
+			  changed++;
+		  }
+	  }
+	  return changed;
+  }
+
+  /**
+   *  draw() draws the raster with each cell as a cellSize x cellSize square,
+   *  with its top left corner at (x, y).
+   */
+
+  public void draw(Graphics graphics, int x, int y, int cellSize) {
+	  graphics.drawImage(image, x, y, image.getWidth() * cellSize, image.getHeight() * cellSize, null);
+  }
+
+  public BufferedImage image() {return image;}
+}
@@ -0,0 +1,80 @@
+/* OceanSeed.java */
+
+import java.util.*;
+
+/**
+ *  The OceanSeed class fills an empty ocean with an initial population, so
+ *  that benchmarks and batch runs start from the same oceans SimText and
+ *  Simulation animate.
+ */
+
+public class OceanSeed {
+
+  /**
+   *  populate() places fish and sharks exactly as SimText and Simulation do:
+   *  it visits the cells in a roundabout order, skipping stripes of cells
+   *  whose x or y coordinate has bit 3 set, and fills about 50% of the cells
+   *  it visits with fish and 15% with sharks, drawing from Random(0).
+   */
+
+  public static void populate(Ocean sea) {populate(sea, 0);}
+
+  /**
+   *  populate() places fish and sharks in the same pattern as SimText, but
+   *  drawing from Random(seed), so each seed gives a different ocean with
+   *  the same character.
+   */
+
+  public static void populate(Ocean sea, long seed) {
+	  Random random = new Random(seed);
+	  int i = sea.width();
+	  int j = sea.height();
+	  int x = 0;
+	  int y = 0;
+
+	  for(int xx = 0; xx < i; xx++) {
+		  x = (x + 78887) % i;
+		  if((x & 8) == 0) {
+			  for(int yy = 0; yy < j; yy++) {
+				  y = (y + 78887) % j;
+				  if((y & 8) == 0) {
+					  int r = random.nextInt();
+
+					  if(r < 0)
+						  sea.addFish(x, y);
+					  else if(r > 1500000000)
+						  sea.addShark(x, y);
+				  }
+			  }
+		  }
+	  }
+  }
+
+  /**
+   *  populate() fills every cell independently:  with a fish with probability
+   *  fishDensity, otherwise with a newborn shark with probability
+   *  sharkDensity, drawing from Random(seed).
+   *  @param sea is the ocean to fill.  It should be empty.
+   *  @param seed is the seed of the random number generator.
+   *  @param fishDensity is the fraction of cells to fill with fish.
+   *  @param sharkDensity is the fraction of cells to fill with sharks.
+   */
+
+  public static void populate(Ocean sea, long seed, double fishDensity, double sharkDensity) {
+	  if(fishDensity < 0 || sharkDensity < 0 || fishDensity + sharkDensity > 1)
+		  throw new IllegalArgumentException("Densities must be nonnegative and add up to at most 1");
+
+	  Random random = new Random(seed);
+
+	  for(int y = 0; y < sea.height(); y++) {
+		  for(int x = 0; x < sea.width(); x++) {
+			  double r = random.nextDouble();
+
+			  if(r < fishDensity)
+				  sea.addFish(x, y);
+			  else if(r < fishDensity + sharkDensity)
+				  sea.addShark(x, y);
+		  }
+	  }
+  }
+}
@@ -0,0 +1,421 @@
+/* PackedRunLengthEncoding.java */
+
+import java.util.*;
+
+/**
+ *  The PackedRunLengthEncoding class run-length encodes an Ocean, like
+ *  RunLengthEncoding, and offers the same constructors, and the same public
+ *  methods through the OceanEncoding interface they both implement, so code
+ *  written against OceanEncoding works with either.  Instead of a linked list
+ *  of Run nodes, it keeps the runs in parallel primitive arrays:  the first
+ *  cell of each run, its species, and the hunger of its sharks.  A run's
+ *  length is the distance to the next run's first cell.  Iterating over the
+ *  runs is then a walk through three arrays rather than a chase through
+ *  pointers.
+ *
+ *  The arrays are a gap buffer:  the unused capacity sits as a gap at the
+ *  place of the last insertion, so the runs that addFish() and addShark()
+ *  split and merge are added and removed next to the gap without shifting
+ *  the rest of the arrays.  The run covering a cell is found by binary search
+ *  on the first cells, which are unaffected by splits and merges elsewhere.
+ */
+
+public class PackedRunLengthEncoding implements OceanEncoding {
+
+	private int starveVal; // the starveTime for the Ocean object
+	private int width; // width of the Ocean object
+	private int height; // height of the Ocean object
+
+	private int[] starts; // first cell of each run
+	private byte[] types; // Ocean.EMPTY, Ocean.FISH, or Ocean.SHARK
+	private short[] hungers; // hunger of a run of sharks, -1 for other runs
+	private int count; // number of runs
+	private int gapStart; // the gap occupies array slots gapStart through gapEnd - 1
+	private int gapEnd;
+	private int runPointer; // Used for the nextRun() and restartRuns() methods
+
+  /**
+   *  PackedRunLengthEncoding() (with three parameters) creates a run-length
+   *  encoding of an empty ocean having width i and height j, in which sharks
+   *  starve after starveTime timesteps.
+   *  @param i is the width of the ocean.
+   *  @param j is the height of the ocean.
+   *  @param starveTime is the number of timesteps sharks survive without food.
+   */
+
+  public PackedRunLengthEncoding(int i, int j, int starveTime) {
+	  this(i, j, starveTime, new int[] {Ocean.EMPTY}, new int[] {i * j});
+  }
+
+  /**
+   *  PackedRunLengthEncoding() (with five parameters) creates a run-length
+   *  encoding of an ocean having width i and height j, in which sharks starve
+   *  after starveTime timesteps, from the runs in two arrays, just as the
+   *  five-parameter RunLengthEncoding constructor does.  Runs of length zero
+   *  are dropped and consecutive runs of the same species are merged.
+   *  @param i is the width of the ocean.
+   *  @param j is the height of the ocean.
+   *  @param starveTime is the number of timesteps sharks survive without food.
+   *  @param runTypes is an array that represents the species of each run.
+   *  @param runLengths is an array that represents the length of each run.
+   */
+
+  public PackedRunLengthEncoding(int i, int j, int starveTime, int[] runTypes, int[] runLengths)
+		  throws IllegalArgumentException {
+	  this(i, j, starveTime, runTypes.length);
+
+	  int position = 0;
+
+	  for(int x = 0; x < runLengths.length; x++) {
+		  if(runLengths[x] > 0)
+			  appendRun(position, runTypes[x], (runTypes[x] == Ocean.SHARK)? starveVal: -1);
+		  position += runLengths[x];
+	  }
+	  if(position != width * height)
+		  throw new IllegalArgumentException("Sum of run lengths not equal to " + width * height);
+  }
+
+  /**
+   *  PackedRunLengthEncoding() (with a RunStream) creates a run-length
+   *  encoding from the runs a stream walks through, starting from its current
+   *  position, just as the matching RunLengthEncoding constructor does.
+   *  @param i is the width of the ocean.
+   *  @param j is the height of the ocean.
+   *  @param starveTime is the number of timesteps sharks survive without food.
+   *  @param runs is the stream to take the runs from.  The lengths of its
+   *         remaining runs must add up to i * j.
+   */
+
+  public PackedRunLengthEncoding(int i, int j, int starveTime, RunStream runs) throws IllegalArgumentException {
+	  this(i, j, starveTime, 16);
+
+	  long position = 0;
+
+	  while(runs.next()) {
+		  if(runs.length() > 0 && position < Integer.MAX_VALUE)
+			  appendRun((int) position, runs.type(), (runs.type() == Ocean.SHARK)? runs.hunger(): -1);
+		  position += runs.length();
+	  }
+	  if(position != (long) width * height)
+		  throw new IllegalArgumentException("Sum of run lengths not equal to " + width * height);
+  }
+
+  /**
+   *  PackedRunLengthEncoding() (with one parameter) creates a run-length
+   *  encoding of an input Ocean.
+   *  @param sea is the ocean to encode.
+   */
+
+  public PackedRunLengthEncoding(Ocean sea) {
+	  this(sea.width(), sea.height(), sea.starveTime(), 16);
+
+	  // As in RunLengthEncoding(Ocean), scan the ocean's arrays directly.
+	  byte[] cells = sea.cellPlane();
+	  short[] hunger = sea.hungerPlane();
+	  int totalLength = cells.length;
+	  int current = 0;
+
+	  while(current < totalLength) {
+		  byte type = cells[current];
+		  short feeding = hunger[current];
+
+		  insert(count, current, type, (type == Ocean.SHARK)? feeding: -1);
+		  do
+			  current++;
+		  while((current < totalLength) && (cells[current] == type) && (hunger[current] == feeding));
+	  }
+  }
+
+  private PackedRunLengthEncoding(int i, int j, int starveTime, int capacity) {
+	  starveVal = starveTime;
+	  width = i;
+	  height = j;
+	  capacity = Math.max(capacity, 4);
+	  starts = new int[capacity];
+	  types = new byte[capacity];
+	  hungers = new short[capacity];
+	  gapEnd = capacity;
+  }
+
+  /**
+   *  appendRun() adds a run starting at the given cell after all the others,
+   *  unless the last run has the same contents, in which case that run simply
+   *  extends to cover it.  The gap must be at the end of the arrays.
+   */
+
+  private void appendRun(int start, int type, int hunger) {
+	  if(count == 0 || types[count - 1] != type || hungers[count - 1] != hunger)
+		  insert(count, start, type, hunger);
+  }
+
+  /**
+   *  width(), height(), and starveTime() return the dimensions and starveTime
+   *  of the encoded ocean.
+   */
+
+  public int width() {return width;}
+
+  public int height() {return height;}
+
+  public int starveTime() {return starveVal;}
+
+  /**
+   *  restartRuns() resets the enumeration, so that nextRun() will enumerate
+   *  all the runs from the beginning, as in RunLengthEncoding.
+   */
+
+  public void restartRuns() {runPointer = 0;}
+
+  /**
+   *  nextRun() returns the next run in the enumeration, or null if the runs
+   *  have been exhausted, as in RunLengthEncoding.
+   *  @return the next run in the enumeration, represented by a TypeAndSize
+   *          object.
+   */
+
+  public TypeAndSize nextRun() {
+	  if(runPointer >= count)
+		  return null;
+
+	  int slot = slot(runPointer);
+	  TypeAndSize ts = new TypeAndSize(types[slot], end(runPointer) - starts[slot]);
+	  runPointer++;
+
+	  return ts;
+  }
+
+  /**
+   *  cursor() returns a new RunCursor positioned before the first run.  It
+   *  walks the runs without allocating, and without disturbing nextRun().
+   *  @return a cursor over the runs of this encoding.
+   */
+
+  public RunCursor cursor() {return new Cursor();}
+
+  private class Cursor extends RunCursor {
+	  private int k = -1; // index of the current run
+
+	  public boolean next() {
+		  if(k < count)
+			  k++;
+		  if(k == count)
+			  return false;
+
+		  int slot = slot(k);
+		  set(types[slot], end(k) - starts[slot], hungers[slot]);
+		  return true;
+	  }
+
+	  public void restart() {k = -1;}
+  }
+
+  /**
+   *  toOcean() converts the run-length encoding into an Ocean object.
+   *  @return the Ocean represented by the run-length encoding.
+   */
+
+  public Ocean toOcean() {
+	  Ocean returnOcean = new Ocean(width, height, starveVal);
+
+	  for(int k = 0; k < count; k++) {
+		  int slot = slot(k);
+
+		  if(types[slot] != Ocean.EMPTY)
+			  returnOcean.fillRun(starts[slot], end(k) - starts[slot], types[slot], hungers[slot]);
+	  }
+
+	  return returnOcean;
+  }
+
+  /**
+   *  timeStep() performs a simulation timestep on the encoded ocean, with the
+   *  same result as RunLengthEncoding.timeStep():  RunStepper sweeps the runs
+   *  through two cursors over these arrays, and the runs of the next
+   *  generation are appended straight into the arrays of a new encoding, so
+   *  no Run nodes are created.
+   *  @return a run-length encoding of the ocean one timestep later.
+   */
+
+  public PackedRunLengthEncoding timeStep() {
+	  PackedRunLengthEncoding future = new PackedRunLengthEncoding(width, height, starveVal, 16);
+
+	  RunStepper.step(width, height, starveVal, cursor(), cursor(),
+			  (start, length, type, hunger) -> future.appendRun(start, type, hunger));
+	  return future;
+  }
+
+  /**
+   *  addFish() places a fish in cell (x, y) if the cell is empty, keeping the
+   *  encoding compressed as much as possible.
+   *  @param x is the x-coordinate of the cell to place a fish in.
+   *  @param y is the y-coordinate of the cell to place a fish in.
+   */
+
+  public void addFish(int x, int y) {addCell(x, y, Ocean.FISH, -1);}
+
+  /**
+   *  addShark() places a newborn shark in cell (x, y) if the cell is empty,
+   *  keeping the encoding compressed as much as possible.
+   *  @param x is the x-coordinate of the cell to place a shark in.
+   *  @param y is the y-coordinate of the cell to place a shark in.
+   */
+
+  public void addShark(int x, int y) {addCell(x, y, Ocean.SHARK, starveVal);}
+
+  private void addCell(int x, int y, int type, int hunger) {
+	  int cell = (x % width) + (y * width);
+
+	  if(cell < 0 || cell >= width * height)
+		  return;
+
+	  int k = runAt(cell);
+	  int slot = slot(k);
+
+	  if(types[slot] != Ocean.EMPTY)
+		  return;
+
+	  // Split the empty run into the cells before, at, and after the new one.
+	  if(cell + 1 < end(k)) {
+		  insert(k + 1, cell + 1, Ocean.EMPTY, -1);
+		  slot = slot(k); // the gap may have moved past run k
+	  }
+	  if(starts[slot] < cell) {
+		  insert(k + 1, cell, type, hunger);
+		  k++;
+	  }
+	  else {
+		  types[slot] = (byte) type;
+		  hungers[slot] = (short) hunger;
+	  }
+
+	  // Merge the new run into its neighbors if they have the same contents.
+	  if(k + 1 < count && sameContents(k, k + 1))
+		  remove(k + 1);
+	  if(k > 0 && sameContents(k - 1, k))
+		  remove(k);
+  }
+
+  /**
+   *  check() walks through the run-length encoding and throws an exception
+   *  if two consecutive runs have the same contents, if a run is empty, or if
+   *  the runs do not cover the ocean exactly.
+   */
+
+  public void check() throws IllegalStateException {
+	  if(count == 0 || starts[slot(0)] != 0)
+		  throw new IllegalStateException("PackedRunLengthEncoding does not start at cell 0");
+
+	  for(int k = 0; k < count; k++) {
+		  if(end(k) <= starts[slot(k)])
+			  throw new IllegalStateException("PackedRunLengthEncoding contains an empty run or exceeds the ocean");
+		  if(k > 0 && sameContents(k - 1, k))
+			  throw new IllegalStateException("PackedRunLengthEncoding contains consecutive runs of same runType and hungerVal");
+	  }
+  }
+
+  public String toString() {
+	  StringBuilder s = new StringBuilder();
+
+	  for(int k = 0; k < count; k++) {
+		  int slot = slot(k);
+		  String type;
+
+		  switch(types[slot]) {
+
+		  case Ocean.EMPTY:
+			  type = "Empty";
+			  break;
+		  case Ocean.FISH:
+			  type = "Fish";
+			  break;
+		  case Ocean.SHARK:
+			  type = "Shark";
+			  break;
+		  default:
+			  type = "Invalid Type";
+		  }
+
+		  s.append("[").append(type).append(", ").append(end(k) - starts[slot]).append(", ").append(hungers[slot]).append("]\n");
+	  }
+
+	  return s.append("\n").toString();
+  }
+
+  /**
+   *  slot() returns the array slot of the run with index k, skipping over
+   *  the gap.
+   */
+
+  private int slot(int k) {return (k < gapStart)? k: k + gapEnd - gapStart;}
+
+  private int end(int k) {return (k + 1 < count)? starts[slot(k + 1)]: width * height;}
+
+  private boolean sameContents(int a, int b) {
+	  return types[slot(a)] == types[slot(b)] && hungers[slot(a)] == hungers[slot(b)];
+  }
+
+  /**
+   *  runAt() returns the index of the run covering a cell, searching the runs
+   *  before the gap or the runs after it.
+   */
+
+  private int runAt(int cell) {
+	  if(gapEnd < starts.length && starts[gapEnd] <= cell) {
+		  int k = Arrays.binarySearch(starts, gapEnd, starts.length, cell);
+
+		  return ((k >= 0)? k: -k - 2) - (gapEnd - gapStart);
+	  }
+
+	  int k = Arrays.binarySearch(starts, 0, gapStart, cell);
+
+	  return (k >= 0)? k: -k - 2;
+  }
+
+  /**
+   *  moveGap() moves the gap so that it begins just before the run with index
+   *  k, shifting only the runs between the old and new positions.
+   */
+
+  private void moveGap(int k) {
+	  int gap = gapEnd - gapStart;
+
+	  if(k < gapStart) {
+		  int moved = gapStart - k;
+		  System.arraycopy(starts, k, starts, k + gap, moved);
+		  System.arraycopy(types, k, types, k + gap, moved);
+		  System.arraycopy(hungers, k, hungers, k + gap, moved);
+	  }
+	  else if(k > gapStart) {
+		  int moved = k - gapStart;
+		  System.arraycopy(starts, gapEnd, starts, gapStart, moved);
+		  System.arraycopy(types, gapEnd, types, gapStart, moved);
+		  System.arraycopy(hungers, gapEnd, hungers, gapStart, moved);
+	  }
+	  gapStart = k;
+	  gapEnd = k + gap;
+  }
+
+  private void insert(int k, int start, int type, int hunger) {
+	  if(gapStart == gapEnd) {
+		  moveGap(count);
+		  int capacity = starts.length * 2;
+		  starts = Arrays.copyOf(starts, capacity);
+		  types = Arrays.copyOf(types, capacity);
+		  hungers = Arrays.copyOf(hungers, capacity);
+		  gapEnd = capacity;
+	  }
+
+	  moveGap(k);
+	  starts[gapStart] = start;
+	  types[gapStart] = (byte) type;
+	  hungers[gapStart] = (short) hunger;
+	  gapStart++;
+	  count++;
+  }
+
+  private void remove(int k) {
+	  moveGap(k + 1);
+	  gapStart--;
+	  count--;
+  }
+}
@@ -0,0 +1,271 @@
+/* ParameterSweep.java */
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  The ParameterSweep class runs many independent simulations at once, one
+ *  ocean per task on a fixed pool of worker threads, and streams the
+ *  population of every ocean at every generation to a results file.
+ *
+ *  Usage:
+ *
+ *         java ParameterSweep results.csv [options]
+ *
+ *  The sweep runs every combination of
+ *
+ *         --sizes=80x80,200x100       ocean sizes, as width x height
+ *         --starve=1,2,3              starveTimes
+ *         --seeds=0-99                seeds for OceanSeed, as a list or range
+ *
+ *  for --generations=1000 generations each, on --threads worker threads (by
+ *  default, one per core).  Oceans share nothing, so each steps with the
+ *  serial Ocean.advance(); the parallelism comes from running many at once,
+ *  which keeps every core busy even when each ocean is small.  Larger oceans
+ *  are started first, so the pool does not end up waiting on one straggler.
+ *
+ *  Workers never touch the file.  Each gathers its lines into chunks and
+ *  hands them through a bounded queue to a single writer thread, so the
+ *  workers only ever contend on the queue, once per chunk.  The file holds
+ *  one CSV line per ocean per generation, including generation 0:
+ *
+ *         width,height,starveTime,seed,generation,fish,sharks,
+ *         fishBorn,sharksBorn,fishEaten,sharksStarved
+ *
+ *  The counts come from Ocean.stats(), which the timestep tallies as it
+ *  goes, so writing them costs no extra pass over the ocean.  The births,
+ *  predation, and starvation are those of the timestep that produced each
+ *  generation, and are zero for generation 0.
+ *
+ *  Lines from different oceans are interleaved, but each ocean's lines
+ *  appear in generation order.
+ */
+
+public class ParameterSweep {
+
+  private static final int CHUNK_SIZE = 1 << 16; // characters per chunk handed to the writer
+  private static final char[] END = new char[0]; // tells the writer to stop; workers never hand over an empty chunk
+
+  /**
+   *  A Config is the set of parameters of one simulation in a sweep.
+   */
+
+  public static class Config {
+	  public final int width;
+	  public final int height;
+	  public final int starveTime;
+	  public final long seed;
+	  public final int generations;
+
+	  public Config(int width, int height, int starveTime, long seed, int generations) {
+		  this.width = width;
+		  this.height = height;
+		  this.starveTime = starveTime;
+		  this.seed = seed;
+		  this.generations = generations;
+	  }
+  }
+
+  /**
+   *  run() runs every simulation in a sweep and writes the results file,
+   *  returning once every simulation has finished and the file is closed.
+   *  @param configs are the simulations to run.
+   *  @param results is the file to write, replacing anything it held before.
+   *  @param threads is the number of worker threads.
+   *  @throws IOException if the results file cannot be written.
+   *  @throws ExecutionException if a simulation fails; its exception is the
+   *          cause.
+   */
+
+  public static void run(List<Config> configs, Path results, int threads)
+		  throws IOException, InterruptedException, ExecutionException {
+	  BlockingQueue<char[]> chunks = new ArrayBlockingQueue<char[]>(4 * threads);
+	  ResultWriter writer = new ResultWriter(results, chunks);
+	  ExecutorService pool = Executors.newFixedThreadPool(threads);
+	  List<Future<?>> futures = new ArrayList<Future<?>>();
+	  List<Config> order = new ArrayList<Config>(configs);
+
+	  order.sort((a, b) -> Long.compare((long) b.width * b.height * b.generations,
+			  (long) a.width * a.height * a.generations));
+	  writer.start();
+	  try {
+		  for(Config config : order)
+			  futures.add(pool.submit(() -> {simulate(config, chunks); return null;}));
+		  for(Future<?> future : futures)
+			  future.get();
+	  } finally {
+		  pool.shutdownNow();
+		  chunks.put(END);
+		  writer.join();
+	  }
+	  if(writer.failure != null)
+		  throw writer.failure;
+  }
+
+  /**
+   *  simulate() runs one simulation, handing its lines to the writer.
+   */
+
+  private static void simulate(Config config, BlockingQueue<char[]> chunks) throws InterruptedException {
+	  Ocean sea = new Ocean(config.width, config.height, config.starveTime);
+	  String prefix = config.width + "," + config.height + "," + config.starveTime + "," + config.seed + ",";
+	  StringBuilder lines = new StringBuilder(CHUNK_SIZE + 256);
+
+	  OceanSeed.populate(sea, config.seed);
+	  for(int g = 0; ; g++) {
+		  GenerationStats stats = sea.stats();
+
+		  lines.append(prefix).append(g).append(',').append(stats.fish()).append(',').append(stats.sharks())
+				  .append(',').append(stats.fishBorn()).append(',').append(stats.sharksBorn())
+				  .append(',').append(stats.fishEaten()).append(',').append(stats.sharksStarved()).append('\n');
+		  if(lines.length() >= CHUNK_SIZE)
+			  handOver(lines, chunks);
+
+		  if(g == config.generations)
+			  break;
+		  sea.advance();
+	  }
+	  if(lines.length() > 0)
+		  handOver(lines, chunks);
+  }
+
+  /**
+   *  handOver() puts the lines gathered so far on the queue as one chunk, and
+   *  empties the buffer.
+   */
+
+  private static void handOver(StringBuilder lines, BlockingQueue<char[]> chunks) throws InterruptedException {
+	  char[] chunk = new char[lines.length()];
+
+	  lines.getChars(0, chunk.length, chunk, 0);
+	  chunks.put(chunk);
+	  lines.setLength(0);
+  }
+
+  /**
+   *  The ResultWriter thread writes chunks to the results file until it is
+   *  handed END.  If writing fails, it remembers the failure and keeps
+   *  draining the queue, so workers never block on a writer that has stopped.
+   */
+
+  private static class ResultWriter extends Thread {
+	  private Path results;
+	  private BlockingQueue<char[]> chunks;
+	  private volatile IOException failure;
+
+	  ResultWriter(Path results, BlockingQueue<char[]> chunks) {
+		  super("ParameterSweep writer");
+		  setDaemon(true);
+		  this.results = results;
+		  this.chunks = chunks;
+	  }
+
+	  public void run() {
+		  BufferedWriter out = null;
+
+		  try {
+			  out = Files.newBufferedWriter(results, StandardCharsets.UTF_8);
+			  out.write("width,height,starveTime,seed,generation,fish,sharks,fishBorn,sharksBorn,fishEaten,sharksStarved\n");
+		  } catch(IOException e) {
+			  failure = e;
+		  }
+
+		  try {
+			  for(char[] chunk = chunks.take(); chunk != END; chunk = chunks.take()) {
+				  if(failure == null) {
+					  try {
+						  out.write(chunk);
+					  } catch(IOException e) {
+						  failure = e;
+					  }
+				  }
+			  }
+		  } catch(InterruptedException e) {
+			  Thread.currentThread().interrupt();
+		  } finally {
+			  try {
+				  if(out != null)
+					  out.close();
+			  } catch(IOException e) {
+				  if(failure == null)
+					  failure = e;
+			  }
+		  }
+	  }
+  }
+
+  private static List<Long> parseLongs(String list) {
+	  List<Long> values = new ArrayList<Long>();
+
+	  for(String part : list.split(",")) {
+		  int dash = part.indexOf('-', 1);
+
+		  if(dash < 0)
+			  values.add(Long.parseLong(part.trim()));
+		  else {
+			  long last = Long.parseLong(part.substring(dash + 1).trim());
+
+			  for(long v = Long.parseLong(part.substring(0, dash).trim()); v <= last; v++)
+				  values.add(v);
+		  }
+	  }
+	  return values;
+  }
+
+  /**
+   *  main() reads the parameters and runs the sweep.
+   */
+
+  public static void main(String[] argv) throws Exception {
+	  if(argv.length < 1) {
+		  System.err.println("Usage:  java ParameterSweep results.csv [--sizes=WxH,...] [--starve=...]"
+				  + " [--seeds=...] [--generations=N] [--threads=N]");
+		  System.exit(2);
+	  }
+
+	  String[] sizes = {"80x80"};
+	  List<Long> starveTimes = parseLongs("3");
+	  List<Long> seeds = parseLongs("0");
+	  int generations = 1000;
+	  int threads = Runtime.getRuntime().availableProcessors();
+
+	  for(int k = 1; k < argv.length; k++) {
+		  String value = argv[k].substring(argv[k].indexOf('=') + 1);
+
+		  if(argv[k].startsWith("--sizes="))
+			  sizes = value.split(",");
+		  else if(argv[k].startsWith("--starve="))
+			  starveTimes = parseLongs(value);
+		  else if(argv[k].startsWith("--seeds="))
+			  seeds = parseLongs(value);
+		  else if(argv[k].startsWith("--generations="))
+			  generations = Integer.parseInt(value);
+		  else if(argv[k].startsWith("--threads="))
+			  threads = Integer.parseInt(value);
+		  else
+			  throw new IllegalArgumentException("Unknown option " + argv[k]);
+	  }
+
+	  List<Config> configs = new ArrayList<Config>();
+
+	  for(String size : sizes) {
+		  int x = size.indexOf('x');
+		  int width = Integer.parseInt(size.substring(0, x).trim());
+		  int height = Integer.parseInt(size.substring(x + 1).trim());
+
+		  for(long starveTime : starveTimes) {
+			  for(long seed : seeds)
+				  configs.add(new Config(width, height, (int) starveTime, seed, generations));
+		  }
+	  }
+
+	  long start = System.nanoTime();
+
+	  run(configs, Paths.get(argv[0]), threads);
+	  System.out.printf("%d oceans, %d generations each, in %.3f s%n", configs.size(), generations,
+			  (System.nanoTime() - start) / 1e9);
+  }
+}
@@ -0,0 +1,172 @@
+/* RowKernel.java */
+
+import java.util.*;
+
+/**
+ *  The RowKernel class computes the next generation of a row of an ocean, or
+ *  of a span of cells within a row.  Rather than visiting the eight neighbors
+ *  of every cell, it keeps a three-row window:  the sum of each column over
+ *  the rows above, at, and below the one being stepped.  Moving one cell east
+ *  then only adds one new column sum and drops one old one, and wraparound
+ *  is resolved once at each end of the span instead of at every neighbor.
+ *
+ *  Rows are given as offsets into flat row-major arrays of species and
+ *  hunger, like the ones Ocean keeps, so a RowKernel can step any storage
+ *  that can present three consecutive rows that way.
+ */
+
+final class RowKernel {
+
+  /**
+   *  WEIGHT maps a species to its contribution to a packed neighbor count:
+   *  fish are counted in the low COUNT_BITS bits and sharks above them, so a
+   *  single sum over the neighborhood counts both species at once.
+   */
+  
+  static final int COUNT_BITS = 8;
+  static final int COUNT_MASK = (1 << COUNT_BITS) - 1;
+  static final int[] WEIGHT = {0, 1 << COUNT_BITS, 1}; // indexed by EMPTY, SHARK, FISH
+	
+  private final int width;
+  private final int starveTime;
+  private final int centerWeight;
+  
+  /**
+   *  As it steps, a kernel tallies for GenerationStats how many cells of each
+   *  species it turns into each packed code.  The count for a code is kept
+   *  at tallies[tally(bucket(code), species)]:  there is one bucket each for
+   *  empty cells and fish, then one per shark feeding, up to starveTime and
+   *  one more for overfed sharks, so the tallies take four entries per
+   *  feeding.  Odd columns count into a second copy of the tallies, half
+   *  entries further on, so that runs of cells landing on the same tally do
+   *  not wait on each other's increments.
+   *
+   *  Only a kernel created with tallyFeeding set has a bucket for every
+   *  feeding; any other kernel counts all its sharks in one bucket, so its
+   *  tallies stay a few dozen entries however large starveTime is, and it
+   *  must not be given to GenerationStats.  If countOldCodes() is on, the
+   *  kernel also tallies the buckets of the codes it reads in oldCodes, which
+   *  a step of only some blocks needs.  clearCounts() resets both.
+   */
+  
+  final int[] tallies;
+  final int half;
+  int[] oldCodes; // null until countOldCodes() is first turned on
+  private boolean countOld;
+  private final int lastFeeding;
+  
+  /**
+   *  RowKernel() creates a kernel for rows of the given width in an ocean of
+   *  the given height, in which sharks starve after starveTime timesteps.
+   *  @param tallyFeeding is true if GenerationStats will read the tallies.
+   */
+  
+  RowKernel(int width, int height, int starveTime, boolean tallyFeeding) {
+	  this.width = width;
+	  this.starveTime = starveTime;
+	  centerWeight = centerWeight(width, height);
+	  lastFeeding = tallyFeeding? starveTime + 1: 0;
+	  half = buckets() << Ocean.SPECIES_BITS;
+	  tallies = new int[2 * half];
+  }
+  
+  int buckets() {return lastFeeding + 3;}
+  
+  /**
+   *  bucket() returns the bucket a packed code is tallied in:  0 for an empty
+   *  cell, 1 for a fish, and 2 plus its feeding for a shark, with overfed
+   *  sharks all in the last bucket.  code() returns the packed code of a
+   *  bucket, taking the last bucket to hold sharks with a feeding of
+   *  starveTime + 1.
+   */
+  
+  int bucket(int code) {
+	  int other = code >>> 1;
+	  
+	  return other + ((Math.min(code >>> Ocean.SPECIES_BITS, lastFeeding) + 2 - other) & -(code & Ocean.SHARK));
+  }
+  
+  static int code(int bucket) {
+	  return (bucket < 2)? bucket << 1: ((bucket - 2) << Ocean.SPECIES_BITS) | Ocean.SHARK;
+  }
+  
+  static int tally(int code, int species) {return (code << Ocean.SPECIES_BITS) | species;}
+  
+  /**
+   *  countOldCodes() turns the tallies of the codes a step reads on or off.
+   */
+  
+  void countOldCodes(boolean count) {
+	  countOld = count;
+	  if(count && oldCodes == null)
+		  oldCodes = new int[buckets()];
+  }
+  
+  void clearCounts() {
+	  Arrays.fill(tallies, 0);
+	  if(countOld)
+		  Arrays.fill(oldCodes, 0);
+  }
+  
+  /**
+   *  step() writes the next generation of cells x0 through x1 - 1 of a row.
+   *  @param cells and hunger hold the current generation.
+   *  @param above, row, and below are the offsets of the row being stepped and
+   *         of its wrapped neighbors to the north and south.
+   *  @param futureCells and futureHunger receive the next generation, with
+   *         cell x of the row written at offset out + x.
+   *  @return true if any cell of the span differs from its current contents.
+   */
+  
+  boolean step(byte[] cells, short[] hunger, int above, int row, int below,
+		  byte[] futureCells, short[] futureHunger, int out, int x0, int x1) {
+	  boolean changed = false;
+	  int lastEast = (x1 == width)? 0: x1;
+	  int west = column(cells, above, row, below, (x0 == 0)? width - 1: x0 - 1);
+	  int center = column(cells, above, row, below, x0);
+	  
+	  for(int x = x0; x < x1; x++) {
+		  int east = column(cells, above, row, below, (x + 1 < x1)? x + 1: lastEast);
+		  int contents = cells[row + x];
+		  int counts = west + center + east - centerWeight * WEIGHT[contents];
+		  int code = (hunger[row + x] << Ocean.SPECIES_BITS) | contents;
+		  int next = Ocean.nextCell(contents, code >>> Ocean.SPECIES_BITS, counts & COUNT_MASK,
+				  counts >>> COUNT_BITS, starveTime);
+		  
+		  futureCells[out + x] = (byte) (next & Ocean.SPECIES_MASK);
+		  futureHunger[out + x] = (short) (next >>> Ocean.SPECIES_BITS);
+		  tallies[(x & 1) * half + tally(bucket(next), contents)]++;
+		  if(countOld)
+			  oldCodes[bucket(code)]++;
+		  changed |= next != code;
+		  west = center;
+		  center = east;
+	  }
+	  
+	  return changed;
+  }
+  
+  private static int column(byte[] cells, int above, int row, int below, int x) {
+	  return WEIGHT[cells[above + x]] + WEIGHT[cells[row + x]] + WEIGHT[cells[below + x]];
+  }
+  
+  /**
+   *  centerWeight() returns how many times a cell shows up in the sum over its
+   *  own 3x3 neighborhood, less the times it should be counted as a neighbor.
+   *  Offsets that wrap around onto the cell itself are not neighbors, so in
+   *  oceans one cell wide or tall the cell is subtracted more than once.
+   */
+  
+  static int centerWeight(int width, int height) {
+	  int weight = 1;
+	  
+	  if(width == 1)
+		  weight += 2;
+	  if(height == 1)
+		  weight += 2;
+	  if(width == 1 && height == 1)
+		  weight += 4;
+	  
+	  return weight;
+  }
+}
@@ -0,0 +1,28 @@
+/* RunCursor.java */
+
+/**
+ *  A RunCursor walks through the runs of a run-length encoding, like
+ *  restartRuns() and nextRun(), but without creating a TypeAndSize for every
+ *  run:  next() moves the cursor to the following run, and type(), length(),
+ *  and hunger() describe the run it is on.  One cursor can be kept and
+ *  restarted for every pass, so walking an encoding allocates nothing.
+ *
+ *  Each cursor keeps its own position, separate from nextRun() and from any
+ *  other cursor.  As with nextRun(), don't change the encoding with addFish()
+ *  or addShark() while a cursor is in use; restart it afterward instead.
+ *
+ *  Cursors are obtained from RunLengthEncoding.cursor() and
+ *  PackedRunLengthEncoding.cursor().
+ */
+
+public abstract class RunCursor extends RunStream {
+
+  RunCursor() {}
+
+  /**
+   *  restart() moves the cursor back before the first run, so the next call
+   *  to next() moves to the first run again.
+   */
+
+  public abstract void restart();
+}
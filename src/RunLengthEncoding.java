@@ -1,5 +1,7 @@
 /* RunLengthEncoding.java */
 
+import java.util.*;
+
 /**
  *  The RunLengthEncoding class defines an object that run-length encodes an
  *  Ocean object.  Descriptions of the methods you must implement appear below.
@@ -21,7 +23,7 @@
  *  See the README file accompanying this project for additional details.
  */
 
-public class RunLengthEncoding {
+public class RunLengthEncoding implements OceanEncoding {
 
   /**
    *  I've implemented this class to manage a doubly linked list of Run objects
@@ -35,6 +37,7 @@ public class RunLengthEncoding {
 
 	private Run header; // header and trailer are dummy Run nodes with their data members set to -1
 	private Run trailer; // RunLengthEncoding constructors should initialize header and trailer with the two argument Run constructor.
+	private TreeMap<Integer, Run> runIndex; // first cell of each nonempty run -> run, or null until indexRuns() is called
 
   /**
    *  The following methods are required for Part II.
@@ -53,9 +56,10 @@ public class RunLengthEncoding {
 	  starveVal = starveTime;
 	  width = i;
 	  height = j;
-	  header = new Run(null, trailer);
+	  header = new Run(null, null);
 	  trailer = new Run(header, null);
-	  Run emptyOcean = new Run(i * j, Ocean.EMPTY, starveVal);
+	  header.setNext(trailer);
+	  Run emptyOcean = new Run(i * j, Ocean.EMPTY, -1);
 	  insertLast(emptyOcean);
 	  runPointer = getFirst();
   }
@@ -81,8 +85,9 @@ public class RunLengthEncoding {
 	  starveVal = starveTime;
 	  width = i;
 	  height = j;
-	  header = new Run(null, trailer);
+	  header = new Run(null, null);
 	  trailer = new Run(header, null);
+	  header.setNext(trailer);
 	  Run newRun;
 	  
 	  for(int x = 0; x < runLengths.length; x++) {
@@ -93,6 +98,80 @@ public class RunLengthEncoding {
 	  runPointer = getFirst();
   }
 
+  /**
+   *  RunLengthEncoding() (with a RunStream) is a constructor that creates a
+   *  run-length encoding of an ocean having width i and height j, in which
+   *  sharks starve after starveTime timesteps, from the runs that a stream
+   *  walks through, starting from its current position.  Consecutive runs
+   *  with the same contents are merged, so the runs may come from a cursor
+   *  over any encoding, or from a reader such as RunLengthFile.open().
+   *  @param i is the width of the ocean.
+   *  @param j is the height of the ocean.
+   *  @param starveTime is the number of timesteps sharks survive without food.
+   *  @param runs is the stream to take the runs from.  The lengths of its
+   *         remaining runs must add up to i * j.
+   */
+
+  public RunLengthEncoding(int i, int j, int starveTime, RunStream runs) throws IllegalArgumentException {
+	  long totalLength = 0;
+	  starveVal = starveTime;
+	  width = i;
+	  height = j;
+	  header = new Run(null, null);
+	  trailer = new Run(header, null);
+	  header.setNext(trailer);
+	  
+	  while(runs.next()) {
+		  if(runs.length() > 0)
+			  appendRun(runs.length(), runs.type(), (runs.type() == Ocean.SHARK)? runs.hunger(): -1);
+		  totalLength += runs.length();
+	  }
+	  
+	  if(totalLength != (long) i * j)
+		  throw new IllegalArgumentException("Sum of Run lengths not equal to RunLengthEncoding length");
+	  runPointer = getFirst();
+  }
+
+  /**
+   *  width(), height(), and starveTime() return the dimensions and starveTime
+   *  of the encoded ocean.
+   */
+
+  public int width() {return width;}
+
+  public int height() {return height;}
+
+  public int starveTime() {return starveVal;}
+
+  /**
+   *  This constructor creates an encoding with the same dimensions and
+   *  starveTime as another, but with no runs at all.  The caller must fill
+   *  it with appendRun() before it is used.
+   */
+
+  private RunLengthEncoding(RunLengthEncoding shape) {
+	  starveVal = shape.starveVal;
+	  width = shape.width;
+	  height = shape.height;
+	  header = new Run(null, null);
+	  trailer = new Run(header, null);
+	  header.setNext(trailer);
+  }
+
+  /**
+   *  appendRun() adds a run to the end of the encoding, merging it into the
+   *  last run if the two have the same contents.
+   */
+
+  private void appendRun(int length, int type, int hunger) {
+	  Run last = trailer.getPrev();
+
+	  if(last != header && last.getRunType() == type && last.getHungerVal() == hunger)
+		  last.setRunLength(last.getRunLength() + length);
+	  else
+		  insertLast(new Run(length, type, hunger));
+  }
+
   /**
    *  restartRuns() and nextRun() are two methods that work together to return
    *  all the runs in the run-length encoding, one by one.  Each time
@@ -137,6 +216,30 @@ public class RunLengthEncoding {
 	  return ts;
   }
 
+  /**
+   *  cursor() returns a new RunCursor positioned before the first run.  It
+   *  walks the runs without allocating, and without disturbing nextRun().
+   *  @return a cursor over the runs of this encoding.
+   */
+
+  public RunCursor cursor() {return new Cursor();}
+
+  private class Cursor extends RunCursor {
+	  private Run run = header; // the current run, or header before the first
+
+	  public boolean next() {
+		  if(run != trailer)
+			  run = run.getNext();
+		  if(run == trailer)
+			  return false;
+
+		  set(run.getRunType(), run.getRunLength(), run.getHungerVal());
+		  return true;
+	  }
+
+	  public void restart() {run = header;}
+  }
+
   /**
    *  toOcean() converts a run-length encoding of an ocean into an Ocean
    *  object.  You will need to implement the three-parameter addShark method
@@ -145,25 +248,16 @@ public class RunLengthEncoding {
    */
 
   public Ocean toOcean() {
-	  // Creates an Ocean object with width, height, and starveTime equal this RunLengthEncoding
-	  // object's respective values. The method then iterates through each node of the list in
-	  // order to set the Oceans tiles to the appropriate values according to each run.
+	  // A new Ocean is already empty, so runs of empty cells are skipped and
+	  // every other run is filled into the ocean's arrays in one operation.
 	  
 	  Ocean returnOcean = new Ocean(width, height, starveVal);
-	  Run currentRun = getFirst();
 	  int i = 0;
 	  
-	  while(hasNext(currentRun)) {
-		  
-		  for(int x = 0; x < currentRun.getRunLength(); x++) {
-			  if(currentRun.getRunType() == Ocean.SHARK)
-				  returnOcean.addShark(i % width, i / width, currentRun.getHungerVal());
-			  else if(currentRun.getRunType() == Ocean.FISH)
-				  returnOcean.addFish(i % width, i / width);
-			  
-			  i++;
-		  }
-		  currentRun = currentRun.getNext();
+	  for(Run currentRun = getFirst(); hasNext(currentRun); currentRun = currentRun.getNext()) {
+		  if(currentRun.getRunType() != Ocean.EMPTY)
+			  returnOcean.fillRun(i, currentRun.getRunLength(), currentRun.getRunType(), currentRun.getHungerVal());
+		  i += currentRun.getRunLength();
 	  }
 	  
     return returnOcean;
@@ -181,34 +275,51 @@ public class RunLengthEncoding {
    */
 
   public RunLengthEncoding(Ocean sea) {
+	  // Scan the ocean's cell and hunger arrays directly in one linear pass.
+	  // Ocean leaves the hunger of fish and empty cells at zero, so comparing
+	  // hunger along with species never splits a run of fish or empty cells.
+	  byte[] cells = sea.cellPlane();
+	  short[] hunger = sea.hungerPlane();
 	  int current = 0;
-	  int totalLength = sea.height() * sea.width();
-	  int runLength;
-	  int hunger;
-	  int type;
+	  int totalLength = cells.length;
 	  starveVal = sea.starveTime();
 	  width = sea.width();
 	  height = sea.height();
-	  header = new Run(null, trailer);
+	  header = new Run(null, null);
 	  trailer = new Run(header, null);
+	  header.setNext(trailer);
 	  
 	  while(current < totalLength) {
-		  type = sea.cellContents(current);
-		  hunger = sea.sharkFeeding(current);
-		  current++;
-		  runLength = 1;
+		  byte type = cells[current];
+		  short feeding = hunger[current];
+		  int runStart = current;
 		  
-		  while((current < totalLength) && (type == sea.cellContents(current)) && (hunger == sea.sharkFeeding(current))) {
+		  do
 			  current++;
-			  runLength++;
-		  }
+		  while((current < totalLength) && (cells[current] == type) && (hunger[current] == feeding));
 		  
-		  insertLast(new Run(runLength, type, hunger));
+		  insertLast(new Run(current - runStart, type, (type == Ocean.SHARK)? feeding: -1));
 	  }
 	  
 	  runPointer = getFirst();
-	  
-    check();
+  }
+
+  /**
+   *  timeStep() performs a simulation timestep on the encoded ocean, with the
+   *  same result as converting it with toOcean(), calling Ocean.timeStep(),
+   *  and encoding the result, but without ever expanding the ocean.  The
+   *  encoding is swept one row at a time by RunStepper, so memory and time
+   *  are proportional to the number of runs, not to the area of the ocean.
+   *  @return a run-length encoding of the ocean one timestep later.
+   */
+
+  public RunLengthEncoding timeStep() {
+	  RunLengthEncoding future = new RunLengthEncoding(this);
+
+	  RunStepper.step(width, height, starveVal, cursor(), cursor(),
+			  (start, length, type, hunger) -> future.appendRun(length, type, hunger));
+	  future.runPointer = future.getFirst();
+	  return future;
   }
 
   /**
@@ -236,8 +347,6 @@ public class RunLengthEncoding {
 	  insertionRun.setHungerVal(-1);
 	  
 	  smoothOver(start, end);
-	  
-    check();
   }
 
   /**
@@ -263,57 +372,105 @@ public class RunLengthEncoding {
 	  insertionRun.setHungerVal(starveVal);
 	  
 	  smoothOver(start, end);
-  
-  check();
   }
   
+  /**
+   *  prepInsertionRun() finds the run covering cell (x, y) through the run
+   *  index and, if it is a run of empty cells, splits it so that the cell is a
+   *  run of its own, which it returns.  The runs before and after the cell may
+   *  be left with length zero for smoothOver() to remove.  Returns null if the
+   *  cell is out of bounds or not empty.
+   */
+  
   private Run prepInsertionRun(int x, int y) {
-	  Run currentRun = getFirst();
 	  int insertionPoint = wrap(x, y);
-	  int position = 0;
-	  int totalLength = width * height;
 	  
-	  while(position < totalLength) {
-		  if(insertionPoint > currentRun.getRunLength() + position - 1) {
-			  position += currentRun.getRunLength();
-			  currentRun = currentRun.getNext();
-			  continue;
-		  }
-		  
-		  break;
-	  }
+	  if(insertionPoint < 0 || insertionPoint >= width * height)
+		  return null;
+	  if(runIndex == null)
+		  indexRuns();
 	  
-	  if((position >= totalLength) || (currentRun.getRunType() != Ocean.EMPTY))
-		  return null; // Either this is a run of type EMPTY or insertionPoint is out of bounds
+	  Run currentRun = runIndex.floorEntry(insertionPoint).getValue();
 	  
-	  Run start = currentRun.getPrev();
+	  if(currentRun.getRunType() != Ocean.EMPTY)
+		  return null;
+	  
+	  int position = currentRun.start;
 	  int currentLength = currentRun.getRunLength();
-	  int currentType = Ocean.EMPTY;
-	  int currentHunger = -1;
+	  Run before = new Run(insertionPoint - position, Ocean.EMPTY, -1);
+	  Run after = new Run(currentLength - before.getRunLength() - 1, Ocean.EMPTY, -1);
 	  
-	  insertAfter(start, new Run(insertionPoint - position, currentType, currentHunger));
-	  insertAfter(currentRun, new Run(currentLength - currentRun.getPrev().getRunLength() - 1, currentType,  currentHunger));
+	  link(currentRun.getPrev(), before);
+	  link(currentRun, after);
 	  currentRun.setRunLength(1);
 	  
+	  before.start = position;
+	  currentRun.start = insertionPoint;
+	  after.start = insertionPoint + 1;
+	  runIndex.remove(position);
+	  if(before.getRunLength() > 0)
+		  runIndex.put(position, before);
+	  runIndex.put(insertionPoint, currentRun);
+	  if(after.getRunLength() > 0)
+		  runIndex.put(after.start, after);
+	  
 	  return currentRun;
   }
   
+  /**
+   *  smoothOver() removes runs of length zero and merges consecutive runs with
+   *  the same contents from start through end, keeping the run index in step:
+   *  a run merged into its predecessor leaves the index, and the predecessor
+   *  keeps its start (or takes over the merged run's, if it was empty).
+   */
+  
   private void smoothOver(Run start, Run end) {
 	  Run currentRun = start;
 	  
-	  while(currentRun != end.getNext()) {
-		  if(currentRun.next.getRunLength() == 0)
-			  remove(currentRun.getNext());
+	  while(hasNext(currentRun) && currentRun != end.getNext()) {
+		  Run nextRun = currentRun.getNext();
+		  
+		  if(nextRun.getRunLength() == 0)
+			  unlink(nextRun);
 		  
-		  else if((currentRun.getRunType() == currentRun.getNext().getRunType())
-				  && (currentRun.getHungerVal() == currentRun.getNext().getHungerVal())) {
+		  else if((currentRun.getRunType() == nextRun.getRunType())
+				  && (currentRun.getHungerVal() == nextRun.getHungerVal())) {
 			  
-			  currentRun.setRunLength(currentRun.getRunLength() + currentRun.getNext().getRunLength());
-			  remove(currentRun.getNext());
+			  if(runIndex != null) {
+				  runIndex.remove(nextRun.start, nextRun);
+				  if(currentRun.getRunLength() == 0) { // an empty run left unindexed takes over
+					  currentRun.start = nextRun.start;
+					  runIndex.put(currentRun.start, currentRun);
+				  }
+			  }
+			  
+			  currentRun.setRunLength(currentRun.getRunLength() + nextRun.getRunLength());
+			  unlink(nextRun);
 		  }
 		  
 		  else
-			  currentRun = currentRun.getNext();
+			  currentRun = nextRun;
+	  }
+  }
+  
+  /**
+   *  indexRuns() rebuilds the run index:  a map from the first cell of every
+   *  nonempty run to the run, which lets prepInsertionRun() find the run
+   *  covering a cell in logarithmic time.  Splitting and merging runs never
+   *  moves the cells of other runs, so addFish() and addShark() keep the
+   *  index up to date with a few local changes; anything else that changes
+   *  the list drops the index to be rebuilt here on the next lookup.
+   */
+  
+  private void indexRuns() {
+	  int position = 0;
+	  
+	  runIndex = new TreeMap<Integer, Run>();
+	  for(Run r = getFirst(); hasNext(r); r = r.getNext()) {
+		  r.start = position;
+		  if(r.getRunLength() > 0)
+			  runIndex.put(position, r);
+		  position += r.getRunLength();
 	  }
   }
   
@@ -381,17 +538,26 @@ public class RunLengthEncoding {
 	  if(after == header)
 		  throw new IllegalArgumentException("Can not insert before header");
 	  
-	  Run before = after.getPrev();
-	  before.setNext(newRun);
-	  after.setPrev(newRun);
-	  newRun.setNext(after);
-	  newRun.setPrev(before);
+	  runIndex = null;
+	  link(after.getPrev(), newRun);
   }
 
   public void insertAfter(Run before, Run newRun) throws IllegalArgumentException {
 	  if(before == trailer)
 		  throw new IllegalArgumentException("Can not insert after trailer");
 	  
+	  runIndex = null;
+	  link(before, newRun);
+  }
+  
+  public void remove(Run toRemove) {
+	  runIndex = null;
+	  unlink(toRemove);
+  }
+  
+  // link() and unlink() change the list without touching the run index.
+  
+  private void link(Run before, Run newRun) {
 	  Run after = before.getNext();
 	  after.setPrev(newRun);
 	  before.setNext(newRun);
@@ -399,7 +565,7 @@ public class RunLengthEncoding {
 	  newRun.setNext(after);
   }
   
-  public void remove(Run toRemove) {
+  private void unlink(Run toRemove) {
 	  Run before = toRemove.getPrev();
 	  Run after = toRemove.getNext();
 	  
@@ -408,15 +574,15 @@ public class RunLengthEncoding {
   }
   
   public String toString() {
-	  String s = "";
+	  StringBuilder s = new StringBuilder();
 	  Run currentRun = getFirst();
 	  
 	  while(hasNext(currentRun)) {
-		  s += currentRun + "\n";
+		  s.append(currentRun).append("\n");
 		  currentRun = currentRun.getNext();
 	  }
 	  
-	  return s + "\n";
+	  return s.append("\n").toString();
   }
 
   class Run {
@@ -425,6 +591,7 @@ public class RunLengthEncoding {
 	  private int hungerVal;
 	  private Run prev;
 	  private Run next;
+	  private int start; // first cell of the run, kept current only while the run is indexed
 	  
 	  // This constructor is used to initialize the header and trailer nodes.
 	  Run(Run p, Run n) {
@@ -0,0 +1,315 @@
+/* RunLengthFile.java */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ *  The RunLengthFile class saves run-length encodings to, and loads them
+ *  from, a compact binary format.  Encodings are streamed run by run through
+ *  a small buffer over a java.nio channel, so no text or array copy of the
+ *  ocean is ever built, however many cells it has.
+ *
+ *  The format (version 1) is:
+ *
+ *    4 bytes      the magic number "SFRL"
+ *    1 byte       the format version
+ *    varint       width
+ *    varint       height
+ *    varint       starveTime
+ *    then, for each run, in order:
+ *    varint       the run's tag:  its species (Ocean.EMPTY, Ocean.FISH, or
+ *                 Ocean.SHARK) in the low two bits, and for sharks their
+ *                 hunger in the bits above
+ *    varint       the run's length
+ *
+ *  A varint is an unsigned integer written seven bits at a time, least
+ *  significant first, with the high bit of each byte set on every byte but
+ *  the last.  There is no run count; the runs end once their lengths add up
+ *  to width * height.
+ *
+ *  Channels must be in blocking mode.  Reading and writing wait for each
+ *  buffer to be filled or drained, and a non-blocking SelectableChannel is
+ *  rejected with an IllegalBlockingModeException rather than polled.
+ */
+
+public class RunLengthFile {
+
+  private static final int MAGIC = 0x5346524C; // "SFRL"
+  private static final int VERSION = 1;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   *  write() writes a run-length encoding to a channel.  The channel is left
+   *  open.
+   *  @param out is the channel to write to.
+   *  @param rle is the encoding to write.
+   */
+
+  public static void write(WritableByteChannel out, OceanEncoding rle) throws IOException {
+	  write(out, rle.width(), rle.height(), rle.starveTime(), rle.cursor());
+  }
+
+  /**
+   *  write() writes the runs a stream walks through, from its current
+   *  position, as an encoding of an ocean of the given dimensions.  Runs of
+   *  length zero are left out.
+   */
+
+  public static void write(WritableByteChannel out, int width, int height, int starveTime, RunStream runs)
+		  throws IOException {
+	  ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	  requireBlocking(out);
+	  buffer.putInt(MAGIC);
+	  buffer.put((byte) VERSION);
+	  putVarint(buffer, width);
+	  putVarint(buffer, height);
+	  putVarint(buffer, starveTime);
+
+	  while(runs.next()) {
+		  if(runs.length() == 0)
+			  continue;
+		  if(buffer.remaining() < 10)
+			  drain(out, buffer);
+		  putVarint(buffer, tag(runs.type(), runs.hunger()));
+		  putVarint(buffer, runs.length());
+	  }
+	  drain(out, buffer);
+  }
+
+  /**
+   *  save() writes a run-length encoding to a file, replacing anything the
+   *  file held before.
+   */
+
+  public static void save(Path file, OceanEncoding rle) throws IOException {
+	  try(FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			  StandardOpenOption.TRUNCATE_EXISTING)) {
+		  write(out, rle);
+	  }
+  }
+
+  /**
+   *  open() reads the header from a channel and returns a Reader that decodes
+   *  the runs that follow, one at a time, as it is advanced.
+   *  @throws IOException if the channel does not start with a header of this
+   *          format and version.
+   */
+
+  public static Reader open(ReadableByteChannel in) throws IOException {
+	  return new Reader(in);
+  }
+
+  /**
+   *  read() reads a run-length encoding from a channel.  The channel is left
+   *  open; if it is a SeekableByteChannel, such as a FileChannel, it is left
+   *  positioned just past the encoding, so several encodings can be read one
+   *  after another.
+   *  @throws IOException if the channel does not hold a well-formed encoding.
+   */
+
+  public static RunLengthEncoding read(ReadableByteChannel in) throws IOException {
+	  Reader runs = open(in);
+
+	  try {
+		  RunLengthEncoding rle = new RunLengthEncoding(runs.width(), runs.height(), runs.starveTime(), runs);
+
+		  runs.unread();
+		  return rle;
+	  } catch(UncheckedIOException e) {
+		  throw e.getCause();
+	  }
+  }
+
+  /**
+   *  load() reads a run-length encoding from a file written by save().
+   */
+
+  public static RunLengthEncoding load(Path file) throws IOException {
+	  try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+		  return read(in);
+	  }
+  }
+
+  /**
+   *  tag() packs a run's species and hunger into the tag written for it;
+   *  tagType() and tagHunger() unpack it again; tagType() returns -1 for a
+   *  bad tag.
+   */
+
+  static int tag(int type, int hunger) {
+	  return (type == Ocean.SHARK)? (hunger << 2) | Ocean.SHARK: type;
+  }
+
+  static int tagType(int tag) {
+	  int type = tag & 3;
+
+	  return (type == 3 || (type != Ocean.SHARK && tag > 3) || (tag >>> 2) > Ocean.MAX_FEEDING)? -1: type;
+  }
+
+  static int tagHunger(int tag) {
+	  return ((tag & 3) == Ocean.SHARK)? tag >>> 2: -1;
+  }
+
+  static void putVarint(ByteBuffer buffer, int value) {
+	  while((value & ~0x7F) != 0) {
+		  buffer.put((byte) ((value & 0x7F) | 0x80));
+		  value >>>= 7;
+	  }
+	  buffer.put((byte) value);
+  }
+
+  /**
+   *  getVarint() reads a varint written by putVarint().  Its fifth byte can
+   *  hold only the top four bits of an int, so a larger one is an error
+   *  rather than a silently wrapped value.
+   */
+
+  static int getVarint(ByteBuffer buffer) throws IOException {
+	  int value = 0;
+
+	  for(int shift = 0; shift < 35; shift += 7) {
+		  if(!buffer.hasRemaining())
+			  throw new EOFException("Varint ends early");
+		  int b = buffer.get() & 0xFF;
+
+		  if(shift == 28 && b > 0x0F)
+			  throw new IOException("Varint overflows an int");
+		  value |= (b & 0x7F) << shift;
+		  if((b & 0x80) == 0)
+			  return value;
+	  }
+	  throw new IOException("Bad varint");
+  }
+
+  private static void drain(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+	  buffer.flip();
+	  while(buffer.hasRemaining()) {
+		  if(out.write(buffer) == 0)
+			  throw new IOException("Channel accepted no bytes; is it in blocking mode?");
+	  }
+	  buffer.clear();
+  }
+
+  /**
+   *  requireBlocking() throws an IllegalBlockingModeException if a channel
+   *  is a SelectableChannel in non-blocking mode, on which a read or write
+   *  may transfer nothing and would have to be retried in a busy loop.
+   */
+
+  private static void requireBlocking(Channel channel) {
+	  if(channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking())
+		  throw new IllegalBlockingModeException();
+  }
+
+  /**
+   *  A Reader is a RunStream over the runs of an encoding being read from a
+   *  channel.  Its runs can only be walked once, since the channel need not
+   *  be able to rewind; to walk them again, open the encoding again.
+   *  Because next() cannot throw an IOException, a read error or malformed
+   *  run is thrown from it as an UncheckedIOException.
+   *
+   *  The reader buffers ahead, so it may consume bytes beyond the end of the
+   *  encoding when other data follows it on the channel.
+   */
+
+  public static class Reader extends RunStream {
+	  private ReadableByteChannel in;
+	  private ByteBuffer buffer;
+	  private int width;
+	  private int height;
+	  private int starveTime;
+	  private long remaining; // cells not yet covered by a run
+
+	  private Reader(ReadableByteChannel in) throws IOException {
+		  requireBlocking(in);
+		  this.in = in;
+		  buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		  buffer.flip();
+
+		  int magic = (getByte() << 24) | (getByte() << 16) | (getByte() << 8) | getByte();
+		  if(magic != MAGIC)
+			  throw new IOException("Not a run-length encoding file");
+		  int version = getByte();
+		  if(version != VERSION)
+			  throw new IOException("Unsupported run-length encoding version " + version);
+		  width = getVarint();
+		  height = getVarint();
+		  starveTime = getVarint();
+		  if(width < 1 || height < 1 || starveTime < 0 || starveTime > Ocean.MAX_FEEDING)
+			  throw new IOException("Bad run-length encoding header");
+		  remaining = (long) width * height;
+	  }
+
+	  public int width() {return width;}
+
+	  public int height() {return height;}
+
+	  public int starveTime() {return starveTime;}
+
+	  public boolean next() {
+		  if(remaining == 0)
+			  return false;
+
+		  try {
+			  int tag = getVarint();
+			  int length = getVarint();
+			  int type = tagType(tag);
+
+			  if(type < 0)
+				  throw new IOException("Bad run tag " + tag);
+			  if(length < 1 || length > remaining)
+				  throw new IOException("Bad run length " + length);
+			  remaining -= length;
+			  set(type, length, tagHunger(tag));
+			  return true;
+		  } catch(IOException e) {
+			  throw new UncheckedIOException(e);
+		  }
+	  }
+
+	  /**
+	   *  unread() moves a seekable channel back over the bytes read ahead of
+	   *  the encoding's end.
+	   */
+
+	  private void unread() throws IOException {
+		  if(in instanceof SeekableByteChannel) {
+			  SeekableByteChannel seekable = (SeekableByteChannel) in;
+
+			  seekable.position(seekable.position() - buffer.remaining());
+			  buffer.position(buffer.limit());
+		  }
+	  }
+
+	  private int getByte() throws IOException {
+		  if(!buffer.hasRemaining()) {
+			  buffer.clear();
+			  int n = in.read(buffer);
+			  buffer.flip();
+			  if(n < 0)
+				  throw new EOFException("Run-length encoding ends early");
+			  if(n == 0)
+				  throw new IOException("Channel returned no bytes; is it in blocking mode?");
+		  }
+		  return buffer.get() & 0xFF;
+	  }
+
+	  private int getVarint() throws IOException {
+		  int value = 0;
+
+		  for(int shift = 0; shift < 35; shift += 7) {
+			  int b = getByte();
+
+			  if(shift == 28 && b > 0x0F)
+				  throw new IOException("Varint overflows an int");
+			  value |= (b & 0x7F) << shift;
+			  if((b & 0x80) == 0)
+				  return value;
+		  }
+		  throw new IOException("Bad varint");
+	  }
+  }
+}
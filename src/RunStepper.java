@@ -0,0 +1,191 @@
+/* RunStepper.java */
+
+import java.util.*;
+
+/**
+ *  The RunStepper class performs a simulation timestep on a run-length
+ *  encoded ocean without ever expanding it, for RunLengthEncoding.timeStep()
+ *  and PackedRunLengthEncoding.timeStep().  It reads the current generation
+ *  through RunStreams and hands the runs of the next generation, in order, to
+ *  a Sink, so each encoding builds its result in its own representation.
+ *
+ *  The encoding is swept one row at a time, looking at the rows above and
+ *  below as lists of segments cut from the runs.  Within a row, the next
+ *  contents of a cell can only differ from those of its west neighbor if a
+ *  segment boundary lies in one of the three rows within one cell of it,
+ *  so each stretch between such points is evaluated once and emitted as a
+ *  single run.  Memory and time are proportional to the number of runs,
+ *  not to the area of the ocean.
+ */
+
+final class RunStepper {
+
+  /**
+   *  A Sink receives the runs of the next generation, in order.  Consecutive
+   *  runs may have the same contents, and the sink should merge them.
+   */
+
+  interface Sink {
+	  void appendRun(int start, int length, int type, int hunger);
+  }
+
+  private RunStepper() {}
+
+  /**
+   *  step() performs one timestep.
+   *  @param runs walks the runs of the current generation from the start.
+   *  @param lastRuns walks the same runs, separately; it is used to read the
+   *         last row, which the first row needs before the sweep reaches it.
+   *  @param out receives the runs of the next generation.
+   */
+
+  static void step(int width, int height, int starveTime, RunStream runs, RunStream lastRuns, Sink out) {
+	  int centerWeight = RowKernel.centerWeight(width, height);
+	  RowReader reader = new RowReader(runs, width, 0);
+	  RowSegments first = reader.readRow();
+	  RowSegments last = (height == 1)? first: new RowReader(lastRuns, width, width * (height - 1)).readRow();
+	  RowSegments above = last;
+	  RowSegments middle = first;
+	  int[] points = new int[16];
+	  int start = 0;
+
+	  for(int y = 0; y < height; y++) {
+		  RowSegments below;
+
+		  if(y == height - 1)
+			  below = first;
+		  else if(y == height - 2)
+			  below = last;
+		  else
+			  below = reader.readRow();
+
+		  // Collect every x at which the next contents may change, then sort them.
+		  int count = 0;
+		  int needed = 4 + 3 * (above.count + middle.count + below.count);
+
+		  if(points.length < needed)
+			  points = new int[needed];
+		  points[count++] = 0;
+		  points[count++] = 1;
+		  points[count++] = width - 1;
+		  points[count++] = width;
+		  count = addBoundaries(above, points, count);
+		  count = addBoundaries(middle, points, count);
+		  count = addBoundaries(below, points, count);
+		  Arrays.sort(points, 0, count);
+
+		  int unique = 0;
+
+		  for(int k = 0; k < count; k++) {
+			  if(unique == 0 || points[k] != points[unique - 1])
+				  points[unique++] = points[k];
+		  }
+
+		  for(int k = 0; points[k] < width; k++) {
+			  int x = points[k];
+			  int end = points[k + 1];
+			  int west = (x == 0)? width - 1: x - 1;
+			  int east = (x == width - 1)? 0: x + 1;
+			  int code = middle.codeAt(x);
+			  int counts = above.weight(west) + above.weight(x) + above.weight(east)
+					  + middle.weight(west) + middle.weight(x) + middle.weight(east)
+					  + below.weight(west) + below.weight(x) + below.weight(east)
+					  - centerWeight * RowKernel.WEIGHT[code & Ocean.SPECIES_MASK];
+			  int next = Ocean.nextCell(code & Ocean.SPECIES_MASK, code >>> Ocean.SPECIES_BITS,
+					  counts & RowKernel.COUNT_MASK, counts >>> RowKernel.COUNT_BITS, starveTime);
+			  int type = next & Ocean.SPECIES_MASK;
+
+			  out.appendRun(start + x, end - x, type, (type == Ocean.SHARK)? next >>> Ocean.SPECIES_BITS: -1);
+		  }
+
+		  above = middle;
+		  middle = below;
+		  start += width;
+	  }
+  }
+
+  private static int addBoundaries(RowSegments segments, int[] points, int count) {
+	  for(int k = 1; k < segments.count; k++) {
+		  int boundary = segments.starts[k];
+
+		  points[count++] = boundary - 1;
+		  points[count++] = boundary;
+		  points[count++] = boundary + 1;
+	  }
+
+	  return count;
+  }
+
+  /**
+   *  RowReader cuts the runs of a stream into rows, starting at a given cell
+   *  and moving forward one row per call to readRow().
+   */
+
+  private static class RowReader {
+	  private final RunStream runs;
+	  private final int width;
+	  private int used; // cells of the current run already handed out
+
+	  RowReader(RunStream runs, int width, int start) {
+		  this.runs = runs;
+		  this.width = width;
+		  runs.next();
+		  while(start >= runs.length()) {
+			  start -= runs.length();
+			  runs.next();
+		  }
+		  used = start;
+	  }
+
+	  RowSegments readRow() {
+		  RowSegments segments = new RowSegments();
+		  int x = 0;
+
+		  while(x < width) {
+			  if(used == runs.length()) {
+				  runs.next();
+				  used = 0;
+				  continue;
+			  }
+
+			  int take = Math.min(runs.length() - used, width - x);
+			  int feeding = (runs.type() == Ocean.SHARK)? runs.hunger(): 0;
+
+			  segments.add(x, (feeding << Ocean.SPECIES_BITS) | runs.type());
+			  x += take;
+			  used += take;
+		  }
+
+		  return segments;
+	  }
+  }
+
+  /**
+   *  RowSegments holds one row of an encoding as segments, each with its
+   *  starting x and its contents packed as Ocean.nextCell() packs them.
+   */
+
+  private static class RowSegments {
+	  int[] starts = new int[4];
+	  int[] codes = new int[4];
+	  int count;
+
+	  void add(int start, int code) {
+		  if(count == starts.length) {
+			  starts = Arrays.copyOf(starts, count * 2);
+			  codes = Arrays.copyOf(codes, count * 2);
+		  }
+		  starts[count] = start;
+		  codes[count] = code;
+		  count++;
+	  }
+
+	  int codeAt(int x) {
+		  int k = Arrays.binarySearch(starts, 0, count, x);
+
+		  return codes[(k >= 0)? k: -k - 2];
+	  }
+
+	  int weight(int x) {return RowKernel.WEIGHT[codeAt(x) & Ocean.SPECIES_MASK];}
+  }
+}
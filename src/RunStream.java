@@ -0,0 +1,54 @@
+/* RunStream.java */
+
+/**
+ *  A RunStream walks once through the runs of a run-length encoding:  next()
+ *  moves to the following run, and type(), length(), and hunger() describe
+ *  the run it is on.  It is what constructors and writers that consume runs
+ *  in a single pass accept, so runs can come from a source that cannot be
+ *  rewound, such as RunLengthFile.open() on a network stream.
+ *
+ *  A RunCursor is a RunStream that can also be restarted.
+ */
+
+public abstract class RunStream {
+
+  private int type;
+  private int length;
+  private int hunger;
+
+  RunStream() {}
+
+  /**
+   *  next() moves to the next run, or to the first run after the stream is
+   *  created.
+   *  @return true if the stream is on a run, false if the runs are exhausted.
+   */
+
+  public abstract boolean next();
+
+  /**
+   *  type() returns the species of the current run:  Ocean.EMPTY, Ocean.FISH,
+   *  or Ocean.SHARK.
+   */
+
+  public int type() {return type;}
+
+  /**
+   *  length() returns the number of cells in the current run.
+   */
+
+  public int length() {return length;}
+
+  /**
+   *  hunger() returns the hunger of the sharks in the current run, in the
+   *  same form as Ocean.sharkFeeding(), or -1 if the run is not of sharks.
+   */
+
+  public int hunger() {return hunger;}
+
+  void set(int type, int length, int hunger) {
+	  this.type = type;
+	  this.length = length;
+	  this.hunger = hunger;
+  }
+}
@@ -0,0 +1,220 @@
+/* ShardWorker.java */
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+
+/**
+ *  The ShardWorker class is the program each ShardedOcean starts in a
+ *  separate process to hold one band of rows of the ocean.  It connects back
+ *  to the coordinator over a loopback socket, then answers its commands
+ *  until told to quit or until the connection is lost.
+ *
+ *  The band is kept in flat row-major arrays with one extra row at each end,
+ *  for the halo:  a copy of the last row of the band to the north and of the
+ *  first row of the band to the south.  Each timestep, the worker sends its
+ *  own first and last rows to the coordinator, receives its halo rows in
+ *  return, and steps its band with a RowKernel.  Only species are exchanged,
+ *  since the kernel reads nothing of a neighboring cell but its species.
+ *
+ *  Usage (by ShardedOcean only):
+ *
+ *         java ShardWorker port index
+ */
+
+public class ShardWorker {
+
+  /**
+   *  The commands, each a byte followed by its arguments:
+   *
+   *    INIT    width, height, starveTime, rows:  an empty band of the given
+   *            number of rows, in an ocean of the given size
+   *    LOAD    y, count, then count rows of species bytes and count rows of
+   *            hunger shorts:  replaces rows of the band
+   *    GET     y, count:  answers with rows, as LOAD sends them
+   *    ADD     x, y, code:  places a packed code in cell (x, y) if it is empty
+   *    STEP    exchanges the halo, as described above, and steps the band
+   *    COUNT   recounts the fish and sharks in the band
+   *    QUIT    ends the worker
+   *
+   *  with y relative to the band.  ADD, STEP, and COUNT answer with the
+   *  number of fish and sharks in the band.
+   */
+
+  static final byte INIT = 'I';
+  static final byte LOAD = 'L';
+  static final byte GET = 'G';
+  static final byte ADD = 'A';
+  static final byte STEP = 'S';
+  static final byte COUNT = 'C';
+  static final byte QUIT = 'Q';
+
+  private DataInputStream in;
+  private DataOutputStream out;
+  private int width;
+  private int rows;
+  private byte[] cells; // rows + 2 rows, the halo first and last
+  private short[] hunger;
+  private byte[] futureCells;
+  private short[] futureHunger;
+  private RowKernel kernel;
+  private int fish;
+  private int sharks;
+
+  private ShardWorker(Socket socket) throws IOException {
+	  in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+	  out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+  }
+
+  private void run() throws IOException {
+	  while(true) {
+		  byte command = in.readByte();
+
+		  if(command == INIT) {
+			  width = in.readInt();
+			  int height = in.readInt();
+			  int starveTime = in.readInt();
+
+			  rows = in.readInt();
+			  cells = new byte[(rows + 2) * width];
+			  hunger = new short[cells.length];
+			  futureCells = new byte[cells.length];
+			  futureHunger = new short[cells.length];
+			  kernel = new RowKernel(width, height, starveTime, false);
+		  } else if(command == LOAD) {
+			  int y = in.readInt();
+			  int count = in.readInt();
+
+			  readRows(in, cells, hunger, (y + 1) * width, count * width);
+		  } else if(command == GET) {
+			  int y = in.readInt();
+			  int count = in.readInt();
+
+			  writeRows(out, cells, hunger, (y + 1) * width, count * width);
+			  out.flush();
+		  } else if(command == ADD) {
+			  add(in.readInt(), in.readInt(), in.readInt());
+			  reply();
+		  } else if(command == STEP) {
+			  step();
+			  reply();
+		  } else if(command == COUNT) {
+			  count();
+			  reply();
+		  } else if(command == QUIT)
+			  return;
+		  else
+			  throw new IOException("Unknown command " + command);
+	  }
+  }
+
+  private void add(int x, int y, int code) {
+	  int i = (y + 1) * width + x;
+
+	  if(cells[i] == Ocean.EMPTY) {
+		  cells[i] = (byte) (code & Ocean.SPECIES_MASK);
+		  hunger[i] = (short) (code >>> Ocean.SPECIES_BITS);
+		  if(cells[i] == Ocean.FISH)
+			  fish++;
+		  else
+			  sharks++;
+	  }
+  }
+
+  /**
+   *  step() sends the first and last rows of the band, receives the halo, and
+   *  steps every row of the band.
+   */
+
+  private void step() throws IOException {
+	  out.write(cells, width, width);
+	  out.write(cells, rows * width, width);
+	  out.flush();
+	  in.readFully(cells, 0, width);
+	  in.readFully(cells, (rows + 1) * width, width);
+
+	  kernel.clearCounts();
+	  for(int y = 1; y <= rows; y++) {
+		  int row = y * width;
+
+		  kernel.step(cells, hunger, row - width, row, row + width, futureCells, futureHunger, row, 0, width);
+	  }
+
+	  byte[] swapCells = cells;
+	  short[] swapHunger = hunger;
+
+	  cells = futureCells;
+	  hunger = futureHunger;
+	  futureCells = swapCells;
+	  futureHunger = swapHunger;
+
+	  fish = sharks = 0;
+	  for(int t = 0; t < kernel.tallies.length; t++) {
+		  int species = RowKernel.code((t % kernel.half) >>> Ocean.SPECIES_BITS) & Ocean.SPECIES_MASK;
+
+		  if(species == Ocean.FISH)
+			  fish += kernel.tallies[t];
+		  else if(species == Ocean.SHARK)
+			  sharks += kernel.tallies[t];
+	  }
+  }
+
+  private void count() {
+	  fish = sharks = 0;
+	  for(int i = width; i < (rows + 1) * width; i++) {
+		  if(cells[i] == Ocean.FISH)
+			  fish++;
+		  else if(cells[i] == Ocean.SHARK)
+			  sharks++;
+	  }
+  }
+
+  private void reply() throws IOException {
+	  out.writeInt(fish);
+	  out.writeInt(sharks);
+	  out.flush();
+  }
+
+  /**
+   *  writeRows() writes length cells of species, then of hunger, starting at
+   *  offset.  readRows() reads them back.
+   */
+
+  static void writeRows(DataOutputStream out, byte[] cells, short[] hunger, int offset, int length)
+		  throws IOException {
+	  ByteBuffer buffer = ByteBuffer.allocate(2 * length);
+
+	  buffer.asShortBuffer().put(hunger, offset, length);
+	  out.write(cells, offset, length);
+	  out.write(buffer.array());
+  }
+
+  static void readRows(DataInputStream in, byte[] cells, short[] hunger, int offset, int length)
+		  throws IOException {
+	  byte[] bytes = new byte[2 * length];
+
+	  in.readFully(cells, offset, length);
+	  in.readFully(bytes);
+	  ByteBuffer.wrap(bytes).asShortBuffer().get(hunger, offset, length);
+  }
+
+  /**
+   *  main() connects to the coordinator on the given loopback port, tells it
+   *  which shard this is, and serves it.  A lost connection means the
+   *  coordinator is gone, so the worker simply exits.
+   */
+
+  public static void main(String[] argv) throws IOException {
+	  try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(argv[0]))) {
+		  ShardWorker worker;
+
+		  socket.setTcpNoDelay(true);
+		  worker = new ShardWorker(socket);
+		  worker.out.writeInt(Integer.parseInt(argv[1]));
+		  worker.out.flush();
+		  worker.run();
+	  } catch(EOFException e) {
+		  // The coordinator closed the connection without sending QUIT.
+	  }
+  }
+}
@@ -0,0 +1,487 @@
+/* ShardedOcean.java */
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  The ShardedOcean class is an ocean split across several worker processes
+ *  on the same machine, so it can grow past the heap of any one JVM and
+ *  spread its garbage collection over many small heaps.  It follows the same
+ *  rules as Ocean.
+ *
+ *  The ocean is cut into bands of whole rows, one per ShardWorker process,
+ *  which this coordinator starts with the same java command and class path
+ *  as its own.  Since a band spans the full width of the torus, wraparound
+ *  to the east and west stays inside the band, and a timestep only needs the
+ *  row just north and the row just south of each band.  Every timestep, each
+ *  worker sends its first and last rows to the coordinator over a loopback
+ *  socket, which relays them to the neighboring bands as their halos, and
+ *  then all the workers step their bands at once.
+ *
+ *  The coordinator holds none of the ocean itself.  Fish and sharks can be
+ *  added one at a time, at the cost of a round trip to a worker, or loaded
+ *  in bulk from an Ocean or from a RunLengthFile, which is streamed row by
+ *  row; save() streams the ocean back out the same way.
+ */
+
+public class ShardedOcean implements Closeable {
+
+  private static final int ACCEPT_TIMEOUT = 60000; // milliseconds for the workers to start
+
+  private int width;
+  private int height;
+  private int starveTime;
+  private long generation;
+  private Shard[] shards;
+
+  /**
+   *  A Shard is the coordinator's end of one worker:  its process, its
+   *  connection, which rows it holds, and how many fish and sharks it last
+   *  reported.
+   */
+
+  private static class Shard {
+	  Process process;
+	  Socket socket;
+	  DataInputStream in;
+	  DataOutputStream out;
+	  int y0;
+	  int rows;
+	  int fish;
+	  int sharks;
+	  byte[] top; // the band's first and last rows, during a timestep
+	  byte[] bottom;
+  }
+
+  /**
+   *  ShardedOcean() starts the workers for an empty i x j ocean, in which
+   *  sharks starve after starveTime timesteps.
+   *  @param shards is the number of worker processes, at most j.
+   *  @param workerOptions are passed to the java command of each worker, for
+   *         example "-Xmx4g".
+   */
+
+  public ShardedOcean(int i, int j, int starveTime, int shards, String... workerOptions) throws IOException {
+	  if(i < 1 || j < 1)
+		  throw new IllegalArgumentException("The ocean must be at least 1 x 1");
+	  if(shards < 1 || shards > j)
+		  throw new IllegalArgumentException("shards must be between 1 and the height, " + j);
+	  width = i;
+	  height = j;
+	  this.starveTime = starveTime;
+	  this.shards = new Shard[shards];
+
+	  try(ServerSocket server = new ServerSocket(0, shards, InetAddress.getLoopbackAddress())) {
+		  server.setSoTimeout(ACCEPT_TIMEOUT);
+		  for(int k = 0; k < shards; k++) {
+			  Shard shard = new Shard();
+
+			  shard.y0 = (int) ((long) k * height / shards);
+			  shard.rows = (int) ((long) (k + 1) * height / shards) - shard.y0;
+			  shard.top = new byte[width];
+			  shard.bottom = new byte[width];
+			  shard.process = workerCommand(server.getLocalPort(), k, workerOptions).start();
+			  this.shards[k] = shard;
+		  }
+		  for(int k = 0; k < shards; k++) {
+			  Socket socket = server.accept();
+			  DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			  Shard shard = this.shards[in.readInt()];
+
+			  socket.setTcpNoDelay(true);
+			  shard.socket = socket;
+			  shard.in = in;
+			  shard.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+		  }
+		  for(Shard shard : this.shards) {
+			  shard.out.writeByte(ShardWorker.INIT);
+			  shard.out.writeInt(width);
+			  shard.out.writeInt(height);
+			  shard.out.writeInt(starveTime);
+			  shard.out.writeInt(shard.rows);
+			  shard.out.flush();
+		  }
+	  } catch(IOException e) {
+		  kill();
+		  throw e;
+	  }
+  }
+
+  /**
+   *  ShardedOcean() (with an Ocean) starts the workers and loads a copy of an
+   *  ocean into them.
+   */
+
+  public ShardedOcean(Ocean sea, int shards, String... workerOptions) throws IOException {
+	  this(sea.width(), sea.height(), sea.starveTime(), shards, workerOptions);
+	  try {
+		  for(Shard shard : this.shards) {
+			  for(int y = 0; y < shard.rows; y++)
+				  loadRows(shard, y, 1, sea.cellPlane(), sea.hungerPlane(), (shard.y0 + y) * width);
+		  }
+		  count();
+	  } catch(IOException e) {
+		  kill();
+		  throw e;
+	  }
+  }
+
+  private static ProcessBuilder workerCommand(int port, int index, String... workerOptions) {
+	  List<String> command = new ArrayList<String>();
+
+	  command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+	  command.addAll(Arrays.asList(workerOptions));
+	  command.add("-cp");
+	  command.add(System.getProperty("java.class.path"));
+	  command.add("ShardWorker");
+	  command.add(Integer.toString(port));
+	  command.add(Integer.toString(index));
+	  return new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.INHERIT)
+			  .redirectError(ProcessBuilder.Redirect.INHERIT);
+  }
+
+  /**
+   *  load() starts the workers for the ocean in a RunLengthFile and streams it
+   *  into them, one row at a time.
+   *  @throws IOException if the file cannot be read or is not a valid
+   *          encoding.
+   */
+
+  public static ShardedOcean load(Path file, int shards, String... workerOptions) throws IOException {
+	  try(ReadableByteChannel channel = Files.newByteChannel(file)) {
+		  RunLengthFile.Reader runs = RunLengthFile.open(channel);
+		  ShardedOcean sea = new ShardedOcean(runs.width(), runs.height(), runs.starveTime(), shards,
+				  workerOptions);
+
+		  try {
+			  sea.loadRuns(runs);
+		  } catch(UncheckedIOException e) {
+			  sea.kill();
+			  throw e.getCause();
+		  } catch(IOException | RuntimeException e) {
+			  sea.kill();
+			  throw e;
+		  }
+		  return sea;
+	  }
+  }
+
+  private void loadRuns(RunLengthFile.Reader runs) throws IOException {
+	  byte[] cells = new byte[width];
+	  short[] hunger = new short[width];
+	  int x = 0;
+	  int y = 0;
+	  int k = 0;
+
+	  while(runs.next()) {
+		  for(int n = 0; n < runs.length(); n++) {
+			  if(y == height)
+				  throw new IllegalArgumentException("The runs hold more cells than the ocean");
+			  cells[x] = (byte) runs.type();
+			  hunger[x] = (short) ((runs.type() == Ocean.SHARK)? runs.hunger(): 0);
+			  if(++x == width) {
+				  if(y == shards[k].y0 + shards[k].rows)
+					  k++;
+				  loadRows(shards[k], y - shards[k].y0, 1, cells, hunger, 0);
+				  x = 0;
+				  y++;
+			  }
+		  }
+	  }
+	  if(y != height)
+		  throw new IllegalArgumentException("The runs hold fewer cells than the ocean");
+	  count();
+  }
+
+  private void loadRows(Shard shard, int y, int count, byte[] cells, short[] hunger, int offset)
+		  throws IOException {
+	  shard.out.writeByte(ShardWorker.LOAD);
+	  shard.out.writeInt(y);
+	  shard.out.writeInt(count);
+	  ShardWorker.writeRows(shard.out, cells, hunger, offset, count * width);
+  }
+
+  public int width() {return width;}
+
+  public int height() {return height;}
+
+  public int starveTime() {return starveTime;}
+
+  /**
+   *  shards() returns the number of worker processes.
+   */
+
+  public int shards() {return shards.length;}
+
+  /**
+   *  generation() returns the number of timesteps taken since the ocean was
+   *  created or loaded.
+   */
+
+  public long generation() {return generation;}
+
+  /**
+   *  fish() and sharks() return the number of fish and sharks in the ocean,
+   *  as reported by the workers after the last change.
+   */
+
+  public long fish() {
+	  long fish = 0;
+
+	  for(Shard shard : shards)
+		  fish += shard.fish;
+	  return fish;
+  }
+
+  public long sharks() {
+	  long sharks = 0;
+
+	  for(Shard shard : shards)
+		  sharks += shard.sharks;
+	  return sharks;
+  }
+
+  /**
+   *  addFish() places a fish in cell (x, y) if the cell is empty.  If the cell
+   *  is already occupied, leave the cell as it is.
+   */
+
+  public void addFish(int x, int y) throws IOException {add(x, y, Ocean.FISH);}
+
+  public void addShark(int x, int y) throws IOException {addShark(x, y, starveTime);}
+
+  /**
+   *  addShark() (with three parameters) places a shark with the given feeding
+   *  in cell (x, y) if the cell is empty, as Ocean.addShark() does.
+   */
+
+  public void addShark(int x, int y, int feeding) throws IOException {
+	  if(feeding < 0 || feeding > Ocean.MAX_FEEDING)
+		  throw new IllegalArgumentException("feeding must be between 0 and " + Ocean.MAX_FEEDING);
+	  add(x, y, (feeding << Ocean.SPECIES_BITS) | Ocean.SHARK);
+  }
+
+  private void add(int x, int y, int code) throws IOException {
+	  Shard shard = shardOf(x, y);
+
+	  shard.out.writeByte(ShardWorker.ADD);
+	  shard.out.writeInt(x);
+	  shard.out.writeInt(y - shard.y0);
+	  shard.out.writeInt(code);
+	  shard.out.flush();
+	  readCounts(shard);
+  }
+
+  /**
+   *  cellContents() returns EMPTY, FISH, or SHARK, as Ocean.cellContents()
+   *  does.  It fetches the whole row from a worker, so it is slow.
+   */
+
+  public int cellContents(int x, int y) throws IOException {
+	  byte[] cells = new byte[width];
+
+	  getRows(shardOf(x, y), y, 1, cells, new short[width], 0);
+	  return cells[x];
+  }
+
+  private Shard shardOf(int x, int y) {
+	  if(x < 0 || x >= width || y < 0 || y >= height)
+		  throw new IllegalArgumentException("Cell (" + x + ", " + y + ") is outside the ocean");
+
+	  int k = (int) ((long) y * shards.length / height);
+
+	  // Round the estimate to the band that actually holds row y.
+	  while(y < shards[k].y0)
+		  k--;
+	  while(y >= shards[k].y0 + shards[k].rows)
+		  k++;
+	  return shards[k];
+  }
+
+  /**
+   *  advance() performs a simulation timestep, with the same result as
+   *  Ocean.advance().  The workers send their edge rows, the coordinator
+   *  relays each band its halo, and the bands are then stepped in parallel.
+   */
+
+  public void advance() throws IOException {
+	  for(Shard shard : shards) {
+		  shard.out.writeByte(ShardWorker.STEP);
+		  shard.out.flush();
+	  }
+	  for(Shard shard : shards) {
+		  shard.in.readFully(shard.top);
+		  shard.in.readFully(shard.bottom);
+	  }
+	  for(int k = 0; k < shards.length; k++) {
+		  Shard shard = shards[k];
+
+		  shard.out.write(shards[(k + shards.length - 1) % shards.length].bottom);
+		  shard.out.write(shards[(k + 1) % shards.length].top);
+		  shard.out.flush();
+	  }
+	  for(Shard shard : shards)
+		  readCounts(shard);
+	  generation++;
+  }
+
+  /**
+   *  advance() (with a parameter) performs the given number of timesteps.
+   */
+
+  public void advance(int generations) throws IOException {
+	  for(int g = 0; g < generations; g++)
+		  advance();
+  }
+
+  /**
+   *  toOcean() copies the ocean into an Ocean.  The ocean must be small
+   *  enough to fit on the heap.
+   */
+
+  public Ocean toOcean() throws IOException {
+	  Ocean sea = new Ocean(width, height, starveTime);
+	  byte[] cells = new byte[width];
+	  short[] hunger = new short[width];
+
+	  for(Shard shard : shards) {
+		  for(int y = shard.y0; y < shard.y0 + shard.rows; y++) {
+			  getRows(shard, y, 1, cells, hunger, 0);
+			  for(int x = 0; x < width; x++) {
+				  if(cells[x] == Ocean.FISH)
+					  sea.addFish(x, y);
+				  else if(cells[x] == Ocean.SHARK)
+					  sea.addShark(x, y, hunger[x]);
+			  }
+		  }
+	  }
+	  return sea;
+  }
+
+  /**
+   *  save() writes the ocean to a file in RunLengthFile format, streaming it
+   *  from the workers one row at a time.
+   */
+
+  public void save(Path file) throws IOException {
+	  try(WritableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.CREATE,
+			  StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+		  RunLengthFile.write(channel, width, height, starveTime, new RowCursor());
+	  } catch(UncheckedIOException e) {
+		  throw e.getCause();
+	  }
+  }
+
+  /**
+   *  A RowCursor walks the runs of the ocean, fetching one row at a time from
+   *  the workers.  Runs are split at the end of each row, which the encoding
+   *  merges back together.
+   */
+
+  private class RowCursor extends RunCursor {
+	  private byte[] cells = new byte[width];
+	  private short[] hunger = new short[width];
+	  private int x = width;
+	  private int y = -1;
+
+	  public boolean next() {
+		  if(x == width) {
+			  if(y + 1 == height)
+				  return false;
+			  y++;
+			  x = 0;
+			  try {
+				  getRows(shardOf(0, y), y, 1, cells, hunger, 0);
+			  } catch(IOException e) {
+				  throw new UncheckedIOException(e);
+			  }
+		  }
+
+		  int start = x;
+
+		  while(x < width && cells[x] == cells[start] && hunger[x] == hunger[start])
+			  x++;
+		  set(cells[start], x - start, (cells[start] == Ocean.SHARK)? hunger[start]: -1);
+		  return true;
+	  }
+
+	  public void restart() {
+		  x = width;
+		  y = -1;
+	  }
+  }
+
+  private void getRows(Shard shard, int y, int count, byte[] cells, short[] hunger, int offset)
+		  throws IOException {
+	  shard.out.writeByte(ShardWorker.GET);
+	  shard.out.writeInt(y - shard.y0);
+	  shard.out.writeInt(count);
+	  shard.out.flush();
+	  ShardWorker.readRows(shard.in, cells, hunger, offset, count * width);
+  }
+
+  private void count() throws IOException {
+	  for(Shard shard : shards) {
+		  shard.out.writeByte(ShardWorker.COUNT);
+		  shard.out.flush();
+	  }
+	  for(Shard shard : shards)
+		  readCounts(shard);
+  }
+
+  private static void readCounts(Shard shard) throws IOException {
+	  shard.fish = shard.in.readInt();
+	  shard.sharks = shard.in.readInt();
+  }
+
+  /**
+   *  close() tells every worker to quit and waits for it to exit.  The
+   *  ShardedOcean cannot be used afterward.
+   */
+
+  public void close() throws IOException {
+	  for(Shard shard : shards) {
+		  if(shard.out != null) {
+			  try {
+				  shard.out.writeByte(ShardWorker.QUIT);
+				  shard.out.flush();
+			  } catch(IOException e) {
+				  // The worker is already gone.
+			  }
+		  }
+	  }
+	  kill();
+  }
+
+  /**
+   *  kill() closes every connection and waits a few seconds for the workers
+   *  to exit before destroying them.
+   */
+
+  private void kill() {
+	  for(Shard shard : shards) {
+		  if(shard != null && shard.socket != null) {
+			  try {
+				  shard.socket.close();
+			  } catch(IOException e) {
+				  // Closing is all that is left to do.
+			  }
+		  }
+	  }
+	  for(Shard shard : shards) {
+		  if(shard != null) {
+			  try {
+				  if(!shard.process.waitFor(5, TimeUnit.SECONDS))
+					  shard.process.destroyForcibly();
+			  } catch(InterruptedException e) {
+				  shard.process.destroyForcibly();
+				  Thread.currentThread().interrupt();
+			  }
+		  }
+	  }
+  }
+}
@@ -8,6 +8,8 @@
 /* though, make sure your code works with the original version of this file. */
 
 
+import java.io.*;
+import java.nio.file.*;
 import java.util.*;
 
 /**
@@ -25,6 +27,17 @@ import java.util.*;
  *  ocean with a starveTime of 3.  With some choices of parameters, the ocean
  *  quickly dies out; with others, it teems forever.
  *
+ *  If the fourth parameter is "ansi", each frame is drawn over the last one,
+ *  rewriting only the lines that changed, on a terminal that understands
+ *  ANSI cursor movement.
+ *
+ *  If the system property "checkpoint" names a file, as in
+ *
+ *         java -Dcheckpoint=run.sfcl SimText
+ *
+ *  then every generation is recorded in a CheckpointLog in that file, so any
+ *  of them can be replayed later without rerunning the simulation.
+ *
  *  @author Jonathan Shewchuk
  */
 
@@ -38,38 +51,20 @@ public class SimText {
   private static int j = 25;                            // Default ocean height
   private static int starveTime = 3;           // Default shark starvation time
 
+  private static boolean ansi = false;     // Redraw only changed lines in place
+  private static TextRenderer renderer;
+
   /**
-   *  paint() prints an Ocean.
+   *  paint() prints an Ocean.  Each frame is built by a TextRenderer and
+   *  written with a single write, rather than a print() per character.
    */
 
   public static void paint(Ocean sea) {
     if (sea != null) {
-      int width = sea.width();
-      int height = sea.height();
-
-      /* Draw the ocean. */
-      for (int x = 0; x < width + 2; x++) {
-        System.out.print("-");
+      if (renderer == null || renderer.width() != sea.width() || renderer.height() != sea.height()) {
+        renderer = new TextRenderer(sea.width(), sea.height(), '-', ansi);
       }
-      System.out.println();
-      for (int y = 0; y < height; y++) {
-        System.out.print("|");
-        for (int x = 0; x < width; x++) {
-          int contents = sea.cellContents(x, y);
-          if (contents == Ocean.SHARK) {
-            System.out.print('S');
-          } else if (contents == Ocean.FISH) {
-            System.out.print('~');
-          } else {
-            System.out.print(' ');
-          }
-        }
-        System.out.println("|");
-      }
-      for (int x = 0; x < width + 2; x++) {
-        System.out.print("-");
-      }
-      System.out.println();
+      renderer.print(sea, System.out);
     }
   }
 
@@ -77,7 +72,7 @@ public class SimText {
    *  main() reads the parameters and performs the simulation and animation.
    */
 
-  public static void main(String[] argv) throws InterruptedException {
+  public static void main(String[] argv) throws InterruptedException, IOException {
     Ocean sea;
 
     /**
@@ -111,6 +106,10 @@ public class SimText {
       }
     }
 
+    if (argv.length > 3) {
+      ansi = argv[3].equals("ansi");
+    }
+
     /**
      *  Create the initial ocean.
      */
@@ -146,7 +145,16 @@ public class SimText {
      *  Perform timesteps forever.
      */
 
+    String checkpoint = System.getProperty("checkpoint");
+    CheckpointLog log = null;
+    if (checkpoint != null) {
+      log = CheckpointLog.create(Paths.get(checkpoint), CheckpointLog.DEFAULT_KEYFRAME_INTERVAL);
+    }
+
     while (true) {                                              // Loop forever
+      if (log != null) {
+        log.append(sea);                              // Record the generation
+      }
       paint(sea);
       //  For fun, you might wish to change the delay in the next line.
       Thread.sleep(1000);                // Wait one second (1000 milliseconds)
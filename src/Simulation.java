@@ -9,6 +9,8 @@
 
 
 import java.awt.*;
+import java.io.*;
+import java.nio.file.*;
 import java.util.*;
 
 /**
@@ -26,6 +28,15 @@ import java.util.*;
  *  a 50x25 ocean with a starveTime of 3.  With some choices of parameters,
  *  the ocean quickly dies out; with others, it teems forever.
  *
+ *  The fourth parameter is the number of timesteps to simulate per second
+ *  (1 by default, or 0 to simulate as fast as possible), and an optional
+ *  fifth is the number of frames to draw per second (30 by default).  The
+ *  two rates are independent:  timesteps between frames are simulated but
+ *  not drawn, and each frame rewrites only the pixels of cells that changed.
+ *
+ *  If the system property "checkpoint" names a file, every generation is
+ *  recorded in a CheckpointLog in that file, as in SimText.
+ *
  *  @author Jonathan Shewchuk
  */
 
@@ -46,25 +57,19 @@ public class Simulation {
   private static int j = 80;                            // Default ocean height
   private static int starveTime = 3;           // Default shark starvation time
 
-  private static void drawOcean(Graphics graphics, Ocean ocean) {
+  private static int stepsPerSecond = 1;         // Default simulation speed
+  private static int framesPerSecond = 30;             // Default frame rate
+
+  /**
+   *  drawOcean() brings the raster up to date with the ocean, writing only
+   *  the pixels of cells that changed, and draws it in one scaled blit.
+   */
+
+  private static void drawOcean(Graphics graphics, OceanRaster raster, Ocean ocean) {
     if (ocean != null) {
-      int width = ocean.width();
-      int height = ocean.height();
-
-      for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-          int contents = ocean.cellContents(x, y);
-          if (contents == Ocean.SHARK) {
-            graphics.setColor(Color.red);                   // Draw a red shark
-            graphics.fillRect(x * cellSize, y * cellSize, cellSize, cellSize);
-          } else if (contents == Ocean.FISH) {
-            graphics.setColor(Color.green);                // Draw a green fish
-            graphics.fillRect(x * cellSize, y * cellSize, cellSize, cellSize);
-          } else {
-            graphics.clearRect(x * cellSize, y * cellSize, cellSize, cellSize);
-          }
-        }
-      }
+      raster.update(ocean);
+      raster.draw(graphics, 0, 0, cellSize);
+      Toolkit.getDefaultToolkit().sync();
     }
   }
 
@@ -72,7 +77,7 @@ public class Simulation {
    *  main() reads the parameters and performs the simulation and animation.
    */
 
-  public static void main(String[] argv) throws InterruptedException {
+  public static void main(String[] argv) throws InterruptedException, IOException {
     Ocean sea;
 
     /**
@@ -106,6 +111,24 @@ public class Simulation {
       }
     }
 
+    if (argv.length > 3) {
+      try {
+        stepsPerSecond = Integer.parseInt(argv[3]);
+      }
+      catch (NumberFormatException e) {
+        System.out.println("Fourth argument to Simulation is not an number.");
+      }
+    }
+
+    if (argv.length > 4) {
+      try {
+        framesPerSecond = Integer.parseInt(argv[4]);
+      }
+      catch (NumberFormatException e) {
+        System.out.println("Fifth argument to Simulation is not an number.");
+      }
+    }
+
     /**
      *  Create a window on your screen.
      */
@@ -162,12 +185,38 @@ public class Simulation {
      *  Perform timesteps forever.
      */
 
+    OceanRaster raster = new OceanRaster(i, j);
+    long stepInterval = (stepsPerSecond > 0) ? 1000000000L / stepsPerSecond : 0;
+    long frameInterval = 1000000000L / Math.max(framesPerSecond, 1);
+    long nextStep = System.nanoTime() + stepInterval;
+    long nextFrame = System.nanoTime();
+
+    String checkpoint = System.getProperty("checkpoint");
+    CheckpointLog log = null;
+    if (checkpoint != null) {
+      log = CheckpointLog.create(Paths.get(checkpoint), CheckpointLog.DEFAULT_KEYFRAME_INTERVAL);
+      log.append(sea);                           // Record the first generation
+    }
+
     while (true) {                                              // Loop forever
-      Thread.sleep(1000);                // Wait one second (1000 milliseconds)
-      drawOcean(graphics, sea);                       // Draw the current ocean
-      //  For fun, you might wish to change the delay in the next line.
-      //  If you make it too short, though, the graphics won't work properly.
-      sea = sea.timeStep();                              // Simulate a timestep
+      long now = System.nanoTime();
+      if (now >= nextFrame) {
+        drawOcean(graphics, raster, sea);             // Draw the current ocean
+        nextFrame = Math.max(nextFrame + frameInterval, now);
+      }
+      if (now >= nextStep) {
+        sea.advance();                                   // Simulate a timestep
+        if (log != null) {
+          log.append(sea);                            // Record the generation
+        }
+        //  If the simulation falls behind, skip ahead rather than racing to
+        //  catch up.
+        nextStep = Math.max(nextStep + stepInterval, now);
+      }
+      long wait = Math.min(nextStep, nextFrame) - System.nanoTime();
+      if (wait > 0) {
+        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+      }
     }
   }
 
@@ -0,0 +1,366 @@
+/* SimulationServer.java */
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ *  The SimulationServer class is a local HTTP service in which each client
+ *  session owns an Ocean.  Clients create a session, then step it, add fish
+ *  and sharks to it, and download snapshots of it as run-length encodings.
+ *
+ *  Usage:
+ *
+ *         java SimulationServer [port]
+ *
+ *  The requests are
+ *
+ *         POST   /sessions?width=W&height=H&starveTime=S[&seed=N]
+ *                creates a session, seeded with OceanSeed if a seed is given,
+ *                and answers with its id
+ *         POST   /sessions/ID/step[?generations=N]
+ *                steps the ocean, and answers with its generation
+ *         POST   /sessions/ID/add?x=X&y=Y&type=fish|shark[&feeding=F]
+ *                adds a fish or shark to the ocean, if the cell is empty
+ *         GET    /sessions/ID/snapshot
+ *                answers with the ocean in RunLengthFile format
+ *         DELETE /sessions/ID
+ *                ends the session
+ *
+ *  An ocean may have at most MAX_CELLS cells, and one step request may
+ *  advance at most MAX_STEP_CELLS cells in all, counting each generation;
+ *  larger requests are refused with 413.  At most MAX_SESSIONS sessions may
+ *  be open at once, holding at most MAX_TOTAL_CELLS cells between them, and
+ *  a new session beyond either limit is refused with 429.  An ocean takes
+ *  about six bytes a cell once it has stepped, counting the buffer advance()
+ *  allocates, so the heap needs room for MAX_TOTAL_CELLS of them.
+ *
+ *  Each request is handled on its own virtual thread when the JVM has them
+ *  (Java 21 and later), so thousands of sessions cost little more than
+ *  their oceans; on older JVMs requests share a cached thread pool instead.
+ *  Requests to one session are serialized by the session's lock, which is a
+ *  ReentrantLock rather than a synchronized block so a virtual thread
+ *  waiting on it does not pin its carrier thread.
+ */
+
+public class SimulationServer {
+
+  public static final long MAX_CELLS = 1 << 24;
+  public static final long MAX_STEP_CELLS = 1L << 30;
+  public static final int MAX_SESSIONS = 1024;
+  public static final long MAX_TOTAL_CELLS = 1L << 27;
+
+  private HttpServer server;
+  private ExecutorService executor;
+  private ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+  private AtomicLong nextId = new AtomicLong(1);
+  private AtomicInteger sessionCount = new AtomicInteger();
+  private AtomicLong totalCells = new AtomicLong(); // cells of all open sessions, and of those being created
+
+  /**
+   *  A Session is one client's ocean, along with the number of timesteps it
+   *  has taken.
+   */
+
+  private static class Session {
+	  final ReentrantLock lock = new ReentrantLock();
+	  final Ocean sea;
+	  long generation;
+
+	  Session(Ocean sea) {
+		  this.sea = sea;
+	  }
+  }
+
+  /**
+   *  SimulationServer() creates a server listening on a local port.  It does
+   *  not answer requests until start() is called.
+   *  @param port is the port to listen on, or 0 for any free port.
+   */
+
+  public SimulationServer(int port) throws IOException {
+	  server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+	  executor = newExecutor();
+	  server.setExecutor(executor);
+	  server.createContext("/sessions", this::handle);
+  }
+
+  /**
+   *  newExecutor() returns an executor that runs each task on a new virtual
+   *  thread, if this JVM has virtual threads, and a cached thread pool if not.
+   */
+
+  static ExecutorService newExecutor() {
+	  try {
+		  return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+	  } catch(ReflectiveOperationException e) {
+		  return Executors.newCachedThreadPool();
+	  }
+  }
+
+  public void start() {server.start();}
+
+  /**
+   *  port() returns the port the server is listening on.
+   */
+
+  public int port() {return server.getAddress().getPort();}
+
+  /**
+   *  stop() stops the server, waiting up to the given number of seconds for
+   *  requests in progress to finish, and drops every session.
+   */
+
+  public void stop(int delay) {
+	  server.stop(delay);
+	  executor.shutdown();
+	  sessions.clear();
+	  sessionCount.set(0);
+	  totalCells.set(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+	  try {
+		  String uriPath = exchange.getRequestURI().getPath();
+		  String[] path = uriPath.split("/", -1);
+		  Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+		  String method = exchange.getRequestMethod();
+
+		  // The context matches every path that starts with "/sessions", such as
+		  // "/sessionsXYZ", so only "/sessions" and "/sessions/..." are accepted.
+		  // path is {"", "sessions"} or {"", "sessions", id} or {"", "sessions", id, command}
+		  if(!uriPath.equals("/sessions") && !uriPath.startsWith("/sessions/"))
+			  reply(exchange, 404, "No such request");
+		  else if(path.length == 2 && method.equals("POST"))
+			  create(exchange, query);
+		  else if(path.length == 3 && method.equals("DELETE")) {
+			  Session session = sessions.remove(path[2]);
+
+			  if(session == null)
+				  reply(exchange, 404, "No session " + path[2]);
+			  else {
+				  release((long) session.sea.width() * session.sea.height());
+				  reply(exchange, 200, "ended");
+			  }
+		  } else if(path.length == 4) {
+			  Session session = sessions.get(path[2]);
+
+			  if(session == null)
+				  reply(exchange, 404, "No session " + path[2]);
+			  else if(path[3].equals("step") && method.equals("POST"))
+				  step(exchange, session, query);
+			  else if(path[3].equals("add") && method.equals("POST"))
+				  add(exchange, session, query);
+			  else if(path[3].equals("snapshot") && method.equals("GET"))
+				  snapshot(exchange, session);
+			  else
+				  reply(exchange, 404, "No such request");
+		  } else
+			  reply(exchange, 404, "No such request");
+	  } catch(IllegalArgumentException e) {
+		  reply(exchange, 400, e.getMessage());
+	  } finally {
+		  exchange.close();
+	  }
+  }
+
+  /**
+   *  create() reserves a place and the cells for the new session before
+   *  building its ocean, so concurrent requests cannot open more than
+   *  MAX_SESSIONS sessions or MAX_TOTAL_CELLS cells between them, and gives
+   *  both back if the ocean cannot be built.
+   */
+
+  private void create(HttpExchange exchange, Map<String, String> query) throws IOException {
+	  int width = requiredInt(query, "width");
+	  int height = requiredInt(query, "height");
+	  int starveTime = requiredInt(query, "starveTime");
+	  long cells = (long) width * height;
+	  Ocean sea;
+	  boolean created = false;
+
+	  if(width < 1 || height < 1)
+		  throw new IllegalArgumentException("width and height must be positive");
+	  if(cells > MAX_CELLS) {
+		  reply(exchange, 413, "An ocean may have at most " + MAX_CELLS + " cells");
+		  return;
+	  }
+	  if(sessionCount.incrementAndGet() > MAX_SESSIONS) {
+		  sessionCount.decrementAndGet();
+		  reply(exchange, 429, "At most " + MAX_SESSIONS + " sessions may be open");
+		  return;
+	  }
+	  if(totalCells.addAndGet(cells) > MAX_TOTAL_CELLS) {
+		  release(cells);
+		  reply(exchange, 429, "Open sessions may hold at most " + MAX_TOTAL_CELLS + " cells between them");
+		  return;
+	  }
+	  try {
+		  sea = new Ocean(width, height, starveTime);
+		  if(query.containsKey("seed"))
+			  OceanSeed.populate(sea, longParam(query, "seed"));
+		  created = true;
+	  } finally {
+		  if(!created)
+			  release(cells);
+	  }
+
+	  String id = Long.toString(nextId.getAndIncrement());
+
+	  sessions.put(id, new Session(sea));
+	  reply(exchange, 201, id);
+  }
+
+  /**
+   *  release() gives back the place and cells of a session that has ended or
+   *  could not be created.
+   */
+
+  private void release(long cells) {
+	  sessionCount.decrementAndGet();
+	  totalCells.addAndGet(-cells);
+  }
+
+  private void step(HttpExchange exchange, Session session, Map<String, String> query) throws IOException {
+	  int generations = intParam(query, "generations", 1);
+	  long generation;
+
+	  if(generations < 0)
+		  throw new IllegalArgumentException("generations must be nonnegative");
+	  if((long) generations * session.sea.width() * session.sea.height() > MAX_STEP_CELLS) {
+		  reply(exchange, 413, "A request may step at most " + MAX_STEP_CELLS + " cells, counting each generation");
+		  return;
+	  }
+	  session.lock.lock();
+	  try {
+		  for(int g = 0; g < generations; g++)
+			  session.sea.advance();
+		  session.generation += generations;
+		  generation = session.generation;
+	  } finally {
+		  session.lock.unlock();
+	  }
+	  reply(exchange, 200, Long.toString(generation));
+  }
+
+  private void add(HttpExchange exchange, Session session, Map<String, String> query) throws IOException {
+	  String type = query.get("type");
+
+	  session.lock.lock();
+	  try {
+		  Ocean sea = session.sea;
+		  int x = requiredInt(query, "x");
+		  int y = requiredInt(query, "y");
+
+		  if(x < 0 || x >= sea.width() || y < 0 || y >= sea.height())
+			  throw new IllegalArgumentException("Cell (" + x + ", " + y + ") is outside the ocean");
+		  if("fish".equals(type))
+			  sea.addFish(x, y);
+		  else if("shark".equals(type))
+			  sea.addShark(x, y, intParam(query, "feeding", sea.starveTime()));
+		  else
+			  throw new IllegalArgumentException("type must be fish or shark");
+	  } finally {
+		  session.lock.unlock();
+	  }
+	  reply(exchange, 200, "added");
+  }
+
+  /**
+   *  snapshot() encodes the ocean while holding the session's lock, then
+   *  streams the encoding after releasing it, so a slow client never holds
+   *  up the session's other requests.
+   */
+
+  private void snapshot(HttpExchange exchange, Session session) throws IOException {
+	  RunLengthEncoding rle;
+
+	  session.lock.lock();
+	  try {
+		  rle = new RunLengthEncoding(session.sea);
+	  } finally {
+		  session.lock.unlock();
+	  }
+
+	  exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+	  exchange.sendResponseHeaders(200, 0);
+	  try(WritableByteChannel out = Channels.newChannel(exchange.getResponseBody())) {
+		  RunLengthFile.write(out, rle);
+	  }
+  }
+
+  private static void reply(HttpExchange exchange, int status, String message) throws IOException {
+	  byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+
+	  exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+	  exchange.sendResponseHeaders(status, body.length);
+	  exchange.getResponseBody().write(body);
+  }
+
+  private static Map<String, String> parseQuery(String query) {
+	  Map<String, String> params = new HashMap<String, String>();
+
+	  if(query != null) {
+		  for(String pair : query.split("&")) {
+			  int equals = pair.indexOf('=');
+
+			  if(equals > 0)
+				  params.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+						  URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+		  }
+	  }
+	  return params;
+  }
+
+  /**
+   *  requiredInt() returns an integer parameter, and throws an
+   *  IllegalArgumentException if it is missing.
+   */
+
+  private static int requiredInt(Map<String, String> query, String name) {
+	  if(!query.containsKey(name))
+		  throw new IllegalArgumentException("Missing parameter " + name);
+	  return intParam(query, name, 0);
+  }
+
+  /**
+   *  intParam() returns an integer parameter, or a default if it is missing.
+   */
+
+  private static int intParam(Map<String, String> query, String name, int missing) {
+	  String value = query.get(name);
+
+	  if(value == null)
+		  return missing;
+	  try {
+		  return Integer.parseInt(value);
+	  } catch(NumberFormatException e) {
+		  throw new IllegalArgumentException("Parameter " + name + " is not an integer:  " + value);
+	  }
+  }
+
+  private static long longParam(Map<String, String> query, String name) {
+	  try {
+		  return Long.parseLong(query.get(name));
+	  } catch(NumberFormatException e) {
+		  throw new IllegalArgumentException("Parameter " + name + " is not an integer:  " + query.get(name));
+	  }
+  }
+
+  /**
+   *  main() starts a server and runs until the JVM is stopped.
+   */
+
+  public static void main(String[] argv) throws IOException {
+	  SimulationServer server = new SimulationServer((argv.length > 0)? Integer.parseInt(argv[0]): 8080);
+
+	  server.start();
+	  System.out.println("Listening on http://localhost:" + server.port() + "/sessions");
+  }
+}
@@ -0,0 +1,115 @@
+/* TestBitboard.java */
+
+import java.util.*;
+
+/**
+ *  The TestBitboard class checks that BitboardOcean produces the same grids
+ *  as Ocean.timeStep().  For a range of ocean sizes, from 2 x 2 to 200 x 150,
+ *  including widths on either side of a multiple of 64, it fills an ocean at
+ *  random, steps it both ways for 25 generations, and compares the contents
+ *  and feeding of every cell after each one.  It also checks that both
+ *  engines reject cells outside the ocean.
+ *
+ *  Usage:
+ *
+ *         java TestBitboard
+ */
+
+public class TestBitboard {
+
+  private static final int[] WIDTHS = {2, 3, 5, 63, 64, 65, 127, 128, 129, 200};
+  private static final int[] HEIGHTS = {2, 3, 7, 64, 150};
+  private static final int GENERATIONS = 25;
+
+  private static int failures;
+
+  public static void main(String[] argv) {
+	  Random random = new Random(0);
+	  int oceans = 0;
+
+	  for(int width : WIDTHS) {
+		  for(int height : HEIGHTS) {
+			  int starveTime = random.nextInt(4);
+			  double density = random.nextDouble();
+			  Ocean sea = new Ocean(width, height, starveTime);
+
+			  OceanSeed.populate(sea, random.nextLong(), density * 50 / 65, density * 15 / 65);
+			  sea.addShark(random.nextInt(width), random.nextInt(height), starveTime + 2);
+			  compareSteps(sea);
+			  oceans++;
+		  }
+	  }
+	  checkBounds();
+
+	  if(failures == 0)
+		  System.out.println("BitboardOcean matches Ocean.timeStep() on " + oceans + " oceans.");
+	  else {
+		  System.out.println(failures + " failures.");
+		  System.exit(1);
+	  }
+  }
+
+  /**
+   *  compareSteps() steps an ocean with timeStep() and a BitboardOcean made
+   *  from it with advance(), and reports the first generation they differ.
+   */
+
+  private static void compareSteps(Ocean sea) {
+	  BitboardOcean bitboard = new BitboardOcean(sea);
+
+	  for(int g = 1; g <= GENERATIONS; g++) {
+		  sea = sea.timeStep();
+		  bitboard.advance();
+		  if(!same(sea, bitboard)) {
+			  System.out.println("*** " + sea.width() + " x " + sea.height() + ", starveTime "
+					  + sea.starveTime() + ":  the grids differ after generation " + g);
+			  failures++;
+			  return;
+		  }
+	  }
+  }
+
+  private static boolean same(Ocean sea, BitboardOcean bitboard) {
+	  for(int y = 0; y < sea.height(); y++) {
+		  for(int x = 0; x < sea.width(); x++) {
+			  if(sea.cellContents(x, y) != bitboard.cellContents(x, y)
+					  || sea.sharkFeeding(x, y) != bitboard.sharkFeeding(x, y))
+				  return false;
+		  }
+	  }
+	  return true;
+  }
+
+  /**
+   *  checkBounds() checks that both engines throw IndexOutOfBoundsException
+   *  for cells outside a 4 x 3 ocean, including cells that a flat index or a
+   *  padded word would otherwise reach.
+   */
+
+  private static void checkBounds() {
+	  Ocean sea = new Ocean(4, 3, 2);
+
+	  sea.addFish(1, 1);
+	  sea.addShark(0, 2);
+
+	  BitboardOcean bitboard = new BitboardOcean(sea);
+	  int[][] outside = {{5, 0}, {4, 1}, {-1, 2}, {0, 3}, {0, -1}, {63, 0}};
+
+	  for(int[] cell : outside) {
+		  expectOutOfBounds("Ocean.cellContents", () -> sea.cellContents(cell[0], cell[1]));
+		  expectOutOfBounds("Ocean.sharkFeeding", () -> sea.sharkFeeding(cell[0], cell[1]));
+		  expectOutOfBounds("BitboardOcean.cellContents", () -> bitboard.cellContents(cell[0], cell[1]));
+		  expectOutOfBounds("BitboardOcean.sharkFeeding", () -> bitboard.sharkFeeding(cell[0], cell[1]));
+	  }
+  }
+
+  private static void expectOutOfBounds(String name, Runnable call) {
+	  try {
+		  call.run();
+		  System.out.println("*** " + name + " accepted a cell outside the ocean.");
+		  failures++;
+	  } catch(IndexOutOfBoundsException e) {
+		  // expected
+	  }
+  }
+}
@@ -0,0 +1,161 @@
+/* TextRenderer.java */
+
+import java.io.*;
+import java.nio.charset.*;
+
+/**
+ *  The TextRenderer class draws an Ocean as text, the way SimText.paint()
+ *  does:  a border line, then one line per row with a shark as 'S', a fish
+ *  as '~', and an empty cell as ' ' between '|' characters, then another
+ *  border line.  Each frame is built in a buffer that is reused from frame to
+ *  frame and written out with a single call, instead of a print() call per
+ *  character.
+ *
+ *  In ANSI mode, the renderer remembers the last frame it wrote, and writes
+ *  only the lines that changed since, each preceded by an ANSI escape
+ *  sequence that moves the cursor to the start of that line.  The first
+ *  frame clears the screen and is written in full.
+ */
+
+public class TextRenderer {
+
+  private static final byte[] CHARS = {' ', 'S', '~'}; // indexed by EMPTY, SHARK, FISH
+  private static final byte[] CLEAR = "\033[2J\033[H".getBytes(StandardCharsets.US_ASCII);
+
+  private int width;
+  private int height;
+  private boolean ansi;
+  private byte[] separator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+  private int lineLength;
+  private byte[] frame; // the whole frame, borders included
+  private byte[] shown; // the last frame written, in ANSI mode, or null before the first
+  private byte[] out; // what to write for this frame
+  private int outLength;
+
+  /**
+   *  TextRenderer() creates a renderer for oceans of the given size.
+   *  @param border is the character the top and bottom borders are drawn
+   *         with.
+   *  @param ansi is true to write only changed lines, with ANSI cursor
+   *         movement, or false to write every frame in full.
+   */
+
+  public TextRenderer(int width, int height, char border, boolean ansi) {
+	  this.width = width;
+	  this.height = height;
+	  this.ansi = ansi;
+	  lineLength = width + 2 + separator.length;
+	  frame = new byte[(height + 2) * lineLength];
+	  for(int line = 0; line < height + 2; line++) {
+		  int start = line * lineLength;
+		  boolean isBorder = line == 0 || line == height + 1;
+
+		  for(int x = 0; x < width + 2; x++)
+			  frame[start + x] = (byte) (isBorder? border: ' ');
+		  frame[start] = frame[start + width + 1] = (byte) (isBorder? border: '|');
+		  System.arraycopy(separator, 0, frame, start + width + 2, separator.length);
+	  }
+	  // Room for a cursor movement before every line, plus clearing the screen.
+	  out = new byte[frame.length + (height + 2) * 16 + 16];
+  }
+
+  /**
+   *  render() builds the next frame of an ocean of the renderer's size.
+   *  @return the number of bytes to write, which are at the start of bytes().
+   */
+
+  public int render(Ocean sea) {
+	  byte[] cells = sea.cellPlane();
+
+	  if(sea.width() != width || sea.height() != height)
+		  throw new IllegalArgumentException("Ocean is not the size of the renderer");
+	  for(int y = 0; y < height; y++) {
+		  int start = (y + 1) * lineLength + 1;
+
+		  for(int x = 0; x < width; x++)
+			  frame[start + x] = CHARS[cells[y * width + x]];
+	  }
+
+	  if(!ansi) {
+		  System.arraycopy(frame, 0, out, 0, frame.length);
+		  outLength = frame.length;
+	  } else if(shown == null) {
+		  System.arraycopy(CLEAR, 0, out, 0, CLEAR.length);
+		  outLength = CLEAR.length;
+		  System.arraycopy(frame, 0, out, outLength, frame.length);
+		  outLength += frame.length;
+		  shown = frame.clone();
+	  } else {
+		  outLength = 0;
+		  for(int line = 1; line <= height; line++) {
+			  int start = line * lineLength;
+
+			  if(!sameLine(start)) {
+				  moveTo(line + 1);
+				  System.arraycopy(frame, start, out, outLength, width + 2);
+				  System.arraycopy(frame, start, shown, start, width + 2);
+				  outLength += width + 2;
+			  }
+		  }
+		  if(outLength > 0)
+			  moveTo(height + 3); // leave the cursor below the frame
+	  }
+	  return outLength;
+  }
+
+  public int width() {return width;}
+
+  public int height() {return height;}
+
+  /**
+   *  bytes() returns the buffer render() built the frame in.  It is reused by
+   *  the next call to render().
+   */
+
+  public byte[] bytes() {return out;}
+
+  /**
+   *  print() renders a frame and writes it to a stream with a single write.
+   */
+
+  public void print(Ocean sea, PrintStream stream) {
+	  stream.write(out, 0, render(sea));
+	  stream.flush();
+  }
+
+  public void write(Ocean sea, OutputStream stream) throws IOException {
+	  stream.write(out, 0, render(sea));
+	  stream.flush();
+  }
+
+  private boolean sameLine(int start) {
+	  for(int k = start; k < start + width + 2; k++) {
+		  if(frame[k] != shown[k])
+			  return false;
+	  }
+	  return true;
+  }
+
+  /**
+   *  moveTo() appends the escape sequence that moves the cursor to the start
+   *  of a terminal line, counted from 1, writing the digits straight into the
+   *  buffer so a frame builds no strings.
+   */
+
+  private void moveTo(int line) {
+	  int digits = 1;
+
+	  for(int rest = line / 10; rest > 0; rest /= 10)
+		  digits++;
+	  out[outLength++] = '\033';
+	  out[outLength++] = '[';
+	  for(int k = outLength + digits - 1; k >= outLength; k--) {
+		  out[k] = (byte) ('0' + line % 10);
+		  line /= 10;
+	  }
+	  outLength += digits;
+	  out[outLength++] = ';';
+	  out[outLength++] = '1';
+	  out[outLength++] = 'H';
+  }
+}